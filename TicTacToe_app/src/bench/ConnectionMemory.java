@@ -0,0 +1,204 @@
+//Замер памяти сервера на соединение
+
+
+package bench;
+
+import server.AuthManager;
+import server.GameManager;
+import server.Log;
+import server.ServerCore;
+import shared.BinaryCodec;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Сколько памяти сервера стоит одно простаивающее соединение в каждом режиме
+// ServerCore. Сервер запускается отдельным процессом (та же JVM и classpath),
+// чтобы клиентские сокеты не попали в замер. Клиент открывает N соединений,
+// каждое присылает HELLO бинарного протокола и получает ответ, затем сервер
+// по команде делает сборку мусора и сообщает занятую кучу, RSS и число потоков.
+// Замер до соединений вычитается, разница делится на N.
+//
+// Запуск: java -cp <classes> bench.ConnectionMemory [--connections=10000]
+//         [--modes=nio,virtual,platform] [--settle=3]
+// Для 10k соединений нужен лимит открытых файлов больше 10k (ulimit -n 65536).
+// В режиме platform обслуживаются только 10 соединений, остальные ждут в очереди
+// пула и HELLO не получают: для них ответ не ждется.
+// RSS читается из /proc/self/status, поэтому есть только на Linux.
+public class ConnectionMemory {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length >= 2 && "--serve".equals(args[0])) {
+            serve(ServerCore.ExecutionMode.parse(args[1]));
+            return;
+        }
+
+        int connections = 10_000;
+        String[] modes = {"nio", "virtual", "platform"};
+        int settleSeconds = 3;
+        for (String arg : args) {
+            if (arg.startsWith("--connections=")) {
+                connections = Integer.parseInt(arg.substring("--connections=".length()));
+            } else if (arg.startsWith("--modes=")) {
+                modes = arg.substring("--modes=".length()).split(",");
+            } else if (arg.startsWith("--settle=")) {
+                settleSeconds = Integer.parseInt(arg.substring("--settle=".length()));
+            } else {
+                System.out.println("Неизвестный аргумент: " + arg);
+                return;
+            }
+        }
+
+        PrintStream out = System.out;
+        out.println("Соединений: " + connections + ", JDK " + System.getProperty("java.version") +
+                ", процессоров " + Runtime.getRuntime().availableProcessors());
+        out.println(String.format(Locale.ROOT, "%-9s %12s %12s %12s %10s %9s",
+                "режим", "куча, МБ", "КБ/соед.", "RSS, МБ", "RSS КБ/с.", "потоков"));
+        for (String mode : modes) {
+            measure(out, mode.trim(), connections, settleSeconds);
+        }
+    }
+
+    private static void measure(PrintStream out, String mode, int connections, int settleSeconds)
+            throws Exception {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process server = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                ConnectionMemory.class.getName(), "--serve", mode)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        List<SocketChannel> channels = new ArrayList<>();
+        try (BufferedReader reply = new BufferedReader(new InputStreamReader(server.getInputStream()));
+             PrintStream command = new PrintStream(server.getOutputStream(), true)) {
+            // сервер печатает порт, когда готов принимать соединения
+            String ready = reply.readLine();
+            if (ready == null) {
+                throw new IOException("Сервер не запустился");
+            }
+            int port = Integer.parseInt(ready.trim());
+
+            Sample before = sample(command, reply);
+            boolean served = !"platform".equals(mode);
+            for (int i = 0; i < connections; i++) {
+                channels.add(open(port, served));
+            }
+            Thread.sleep(settleSeconds * 1000L);
+            Sample after = sample(command, reply);
+
+            double heapMb = after.heap / 1048576.0;
+            double rssMb = after.rss / 1048576.0;
+            out.println(String.format(Locale.ROOT, "%-9s %12.1f %12.2f %12.1f %10.2f %9d",
+                    mode, heapMb, (after.heap - before.heap) / 1024.0 / connections, rssMb,
+                    (after.rss - before.rss) / 1024.0 / connections, after.threads));
+        } finally {
+            // сначала сервер: иначе он пишет в журнал о каждом закрытом соединении
+            server.destroy();
+            server.waitFor();
+            for (SocketChannel channel : channels) {
+                channel.close();
+            }
+        }
+    }
+
+    // соединение с HELLO; served - ждать ответ сервера
+    private static SocketChannel open(int port, boolean served) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", port));
+        channel.write(ByteBuffer.wrap(BinaryCodec.helloFrame(BinaryCodec.VERSION)));
+        if (served) {
+            ByteBuffer reply = ByteBuffer.allocate(BinaryCodec.helloFrame(BinaryCodec.VERSION).length);
+            while (reply.hasRemaining()) {
+                if (channel.read(reply) < 0) {
+                    throw new IOException("Сервер закрыл соединение");
+                }
+            }
+        }
+        return channel;
+    }
+
+    private static Sample sample(PrintStream command, BufferedReader reply) throws IOException {
+        command.println("sample");
+        String line = reply.readLine();
+        if (line == null) {
+            throw new IOException("Сервер завершился");
+        }
+        String[] parts = line.trim().split(" ");
+        return new Sample(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Integer.parseInt(parts[2]));
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    // Процесс сервера: принимает соединения и на каждую строку "sample"
+    // отвечает "куча RSS потоки" после сборки мусора
+    private static void serve(ServerCore.ExecutionMode mode) throws Exception {
+        Log.setLevel(Log.Level.WARN);
+        int port = freePort();
+        ServerCore server = new ServerCore(port, new GameManager(), new AuthManager(), mode);
+        Thread acceptor = new Thread(() -> {
+            try {
+                server.start();
+            } catch (IOException e) {
+                Log.error("Сервер остановлен: " + e.getMessage(), e);
+            }
+        }, "bench-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        Thread.sleep(500);
+        System.out.println(port);
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        while ((line = in.readLine()) != null) {
+            if ("sample".equals(line.trim())) {
+                for (int i = 0; i < 3; i++) {
+                    System.gc();
+                    Thread.sleep(200);
+                }
+                Runtime runtime = Runtime.getRuntime();
+                long heap = runtime.totalMemory() - runtime.freeMemory();
+                System.out.println(heap + " " + rss() + " " + ManagementFactory.getThreadMXBean().getThreadCount());
+            }
+        }
+        System.exit(0);
+    }
+
+    // resident set size процесса в байтах, 0 - не Linux
+    private static long rss() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException e) {
+            // не Linux
+        }
+        return 0;
+    }
+
+    private static class Sample {
+        final long heap;
+        final long rss;
+        final int threads;
+
+        Sample(long heap, long rss, int threads) {
+            this.heap = heap;
+            this.rss = rss;
+            this.threads = threads;
+        }
+    }
+}
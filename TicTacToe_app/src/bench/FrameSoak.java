@@ -0,0 +1,135 @@
+//Долгий прогон кадров: память на соединение
+
+
+package bench;
+
+import shared.FrameDecoder;
+import shared.FrameEncoder;
+import shared.GameMessage;
+import shared.GameState;
+
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+// Проверяет, что память соединения со старым протоколом (сериализация Java
+// в кадрах) не растет за долгую сессию. Каждое соединение - пара FrameEncoder
+// и FrameDecoder, как у отправителя и получателя одного сокета; по нему идут
+// события GAME_STATE_UPDATE с новой копией GameState и доской, как их шлет
+// сервер. Каждые --sample сообщений на соединение делается сборка мусора
+// и печатается занятая куча на соединение.
+//
+// --reset=false задает пороги сброса, которые не достигаются: так видно
+// поведение до FrameEncoder, когда таблица ссылок держала все отправленное.
+// Прогон останавливается раньше, если куча заполнена на 3/4.
+//
+// Запуск: java -cp <classes> bench.FrameSoak [--connections=20] [--messages=100000]
+//         [--sample=10000] [--reset=true]
+public class FrameSoak {
+
+    public static void main(String[] args) throws Exception {
+        int connections = 20;
+        int messages = 100_000;
+        int sampleEvery = 10_000;
+        boolean reset = true;
+        for (String arg : args) {
+            if (arg.startsWith("--connections=")) {
+                connections = Integer.parseInt(arg.substring("--connections=".length()));
+            } else if (arg.startsWith("--messages=")) {
+                messages = Integer.parseInt(arg.substring("--messages=".length()));
+            } else if (arg.startsWith("--sample=")) {
+                sampleEvery = Integer.parseInt(arg.substring("--sample=".length()));
+            } else if (arg.startsWith("--reset=")) {
+                reset = Boolean.parseBoolean(arg.substring("--reset=".length()));
+            } else {
+                System.out.println("Неизвестный аргумент: " + arg);
+                return;
+            }
+        }
+
+        FrameEncoder[] encoders = new FrameEncoder[connections];
+        FrameDecoder[] decoders = new FrameDecoder[connections];
+        GameState[] states = new GameState[connections];
+        for (int c = 0; c < connections; c++) {
+            encoders[c] = reset ? new FrameEncoder() : new FrameEncoder(Integer.MAX_VALUE, Integer.MAX_VALUE);
+            decoders[c] = new FrameDecoder();
+            states[c] = new GameState(15, 15, 5);
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        long baseline = usedHeap();
+        System.out.println("Соединений " + connections + ", сообщений на соединение " + messages +
+                ", сброс потока " + (reset ? "по умолчанию (" + FrameEncoder.DEFAULT_RESET_MESSAGES + " сообщений или " +
+                FrameEncoder.DEFAULT_RESET_BYTES + " байт)" : "выключен") +
+                ", куча до начала " + baseline / 1024 + " КБ, предел " + runtime.maxMemory() / 1048576 + " МБ");
+        System.out.println(String.format(Locale.ROOT, "%12s %14s %10s", "сообщений", "КБ/соед.", "мс"));
+
+        Random random = new Random(6);
+        long bytes = 0;
+        long start = System.nanoTime();
+        for (int sent = 1; sent <= messages; sent++) {
+            for (int c = 0; c < connections; c++) {
+                GameState state = states[c];
+                if (state.isFull()) {
+                    state = new GameState(15, 15, 5);
+                    states[c] = state;
+                }
+                int row;
+                int col;
+                do {
+                    row = random.nextInt(15);
+                    col = random.nextInt(15);
+                } while (!state.isEmpty(row, col));
+                state.makeMove(row, col, state.getStoneCount() % 2 == 0 ? "X" : "O");
+
+                byte[] frame = encoders[c].encode(update(state.copy()));
+                bytes += frame.length;
+                byte[] payload = new byte[frame.length - FrameEncoder.HEADER_SIZE];
+                System.arraycopy(frame, FrameEncoder.HEADER_SIZE, payload, 0, payload.length);
+                GameMessage received = decoders[c].decode(payload);
+                if (((GameState) received.getData("gameState")).getStoneCount() != state.getStoneCount()) {
+                    throw new IllegalStateException("Получатель увидел устаревшее состояние");
+                }
+            }
+            if (sent % sampleEvery == 0 || sent == messages) {
+                long used = usedHeap();
+                System.out.println(String.format(Locale.ROOT, "%12d %14.1f %10d", sent,
+                        (used - baseline) / 1024.0 / connections, (System.nanoTime() - start) / 1_000_000));
+                if (used > runtime.maxMemory() / 4 * 3) {
+                    System.out.println("Куча заполнена на 3/4, прогон остановлен");
+                    break;
+                }
+            }
+        }
+        System.out.println("Передано " + bytes / 1048576 + " МБ кадров");
+        // иначе JIT может отпустить соединения раньше последнего замера
+        Reference.reachabilityFence(encoders);
+        Reference.reachabilityFence(decoders);
+    }
+
+    private static GameMessage update(GameState state) {
+        GameMessage update = new GameMessage("GAME_STATE_UPDATE");
+        update.addData("gameId", "0a8w5r6g40000");
+        update.addData("gameState", state);
+        update.addData("gameOver", state.isGameOver());
+        List<String> board = new ArrayList<>();
+        for (String[] row : state.getBoard()) {
+            for (String cell : row) {
+                board.add(cell == null ? "" : cell);
+            }
+        }
+        update.addData("board", board);
+        return update;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
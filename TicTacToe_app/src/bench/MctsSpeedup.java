@@ -0,0 +1,174 @@
+//Замер ускорения поиска Монте-Карло от числа потоков
+
+
+package bench;
+
+import server.Log;
+import server.MctsEngine;
+import shared.GameState;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Ускорение поиска MctsEngine с разделением по корню: одна и та же работа
+// (--playouts доигрываний на ход, время хода не ограничивает) на фиксированных
+// позициях 15x15 до 5 и 7x7 до 4 с 1, 2, 4, 8 потоками. Каждое число потоков
+// идет в отдельном процессе JVM: сначала прогрев, затем --repeats поисков
+// с новым деревом на каждую позицию. Печатаются доигрывания в секунду
+// и ускорение относительно первого числа потоков в списке.
+//
+// MctsEngine не дает потоков больше, чем процессоров минус событийные циклы
+// сервера; столбец "факт." показывает, сколько потоков досталось поиску.
+// --processors=N запускает процессы с -XX:ActiveProcessorCount=N: так видно
+// работу параллельного пути на машине с меньшим числом ядер, но не ускорение.
+//
+// Запуск: java -cp <classes> bench.MctsSpeedup [--threads=1,2,4,8] [--playouts=400000]
+//         [--warmup=2] [--repeats=5] [--processors=N]
+public class MctsSpeedup {
+    private static final String[] POSITIONS = {"15x15 k=5", "7x7 k=4"};
+    // время хода заведомо больше, чем нужно на --playouts доигрываний
+    private static final long TIME_MILLIS = 600_000;
+
+    public static void main(String[] args) throws Exception {
+        String[] threadCounts = {"1", "2", "4", "8"};
+        int playouts = 400_000;
+        int warmup = 2;
+        int repeats = 5;
+        int processors = 0;
+        int run = 0;
+        for (String arg : args) {
+            if (arg.startsWith("--threads=")) {
+                threadCounts = arg.substring("--threads=".length()).split(",");
+            } else if (arg.startsWith("--playouts=")) {
+                playouts = Integer.parseInt(arg.substring("--playouts=".length()));
+            } else if (arg.startsWith("--warmup=")) {
+                warmup = Integer.parseInt(arg.substring("--warmup=".length()));
+            } else if (arg.startsWith("--repeats=")) {
+                repeats = Integer.parseInt(arg.substring("--repeats=".length()));
+            } else if (arg.startsWith("--processors=")) {
+                processors = Integer.parseInt(arg.substring("--processors=".length()));
+            } else if (arg.startsWith("--run=")) {
+                run = Integer.parseInt(arg.substring("--run=".length()));
+            } else {
+                System.out.println("Неизвестный аргумент: " + arg);
+                return;
+            }
+        }
+
+        if (run > 0) {
+            // процесс одного числа потоков: фактические потоки, затем
+            // доигрывания в секунду по каждой позиции
+            Log.setLevel(Log.Level.WARN);
+            measure(run, playouts, warmup, repeats);
+            return;
+        }
+
+        System.out.println("JDK " + System.getProperty("java.version") + ", процессоров " +
+                (processors > 0 ? processors + " (ActiveProcessorCount, ядер " +
+                        Runtime.getRuntime().availableProcessors() + ")" : Runtime.getRuntime().availableProcessors()) +
+                ", доигрываний на ход " + playouts + ", прогрев " + warmup + ", поисков " + repeats);
+        System.out.println(String.format(Locale.ROOT, "%-10s %8s %6s %14s %10s",
+                "позиция", "потоков", "факт.", "доигр./с", "ускорение"));
+        double[][] rates = new double[threadCounts.length][];
+        int[] actual = new int[threadCounts.length];
+        for (int i = 0; i < threadCounts.length; i++) {
+            List<Double> results = fork(Integer.parseInt(threadCounts[i].trim()), playouts, warmup, repeats, processors);
+            actual[i] = results.get(0).intValue();
+            rates[i] = new double[POSITIONS.length];
+            for (int p = 0; p < POSITIONS.length; p++) {
+                rates[i][p] = results.get(p + 1);
+            }
+        }
+        for (int p = 0; p < POSITIONS.length; p++) {
+            for (int i = 0; i < threadCounts.length; i++) {
+                System.out.println(String.format(Locale.ROOT, "%-10s %8s %6d %14.0f %10.2f",
+                        POSITIONS[p], threadCounts[i].trim(), actual[i], rates[i][p], rates[i][p] / rates[0][p]));
+            }
+        }
+    }
+
+    private static List<Double> fork(int threads, int playouts, int warmup, int repeats, int processors)
+            throws IOException, InterruptedException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        if (processors > 0) {
+            command.add("-XX:ActiveProcessorCount=" + processors);
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(MctsSpeedup.class.getName());
+        command.add("--run=" + threads);
+        command.add("--playouts=" + playouts);
+        command.add("--warmup=" + warmup);
+        command.add("--repeats=" + repeats);
+        Process process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        List<Double> results = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                results.add(Double.parseDouble(line.trim()));
+            }
+        }
+        if (process.waitFor() != 0 || results.size() != POSITIONS.length + 1) {
+            throw new IOException("Процесс с " + threads + " потоками завершился с ошибкой");
+        }
+        return results;
+    }
+
+    private static void measure(int threads, int playouts, int warmup, int repeats) {
+        MctsEngine engine = new MctsEngine(TIME_MILLIS, playouts, threads);
+        System.out.println(engine.getThreads());
+        GameState[] states = {large(), small()};
+        for (GameState state : states) {
+            for (int i = 0; i < warmup; i++) {
+                search(engine, state);
+            }
+            long nanos = 0;
+            for (int i = 0; i < repeats; i++) {
+                nanos += search(engine, state);
+            }
+            System.out.println((double) playouts * repeats * 1_000_000_000L / nanos);
+        }
+    }
+
+    // время одного поиска с новым деревом; дерево сразу освобождается,
+    // чтобы следующие поиски не упирались в общий предел узлов
+    private static long search(MctsEngine engine, GameState state) {
+        MctsEngine.Tree tree = new MctsEngine.Tree();
+        long start = System.nanoTime();
+        try {
+            engine.search(state.copy(), tree);
+            return System.nanoTime() - start;
+        } finally {
+            engine.release(tree);
+        }
+    }
+
+    // середина дебюта 15x15, ход X
+    private static GameState large() {
+        GameState state = new GameState(15, 15, 5);
+        state.makeMove(7, 7, "X");
+        state.makeMove(7, 8, "O");
+        state.makeMove(8, 8, "X");
+        state.makeMove(6, 6, "O");
+        state.setCurrentPlayer('X');
+        return state;
+    }
+
+    // 7x7 до 4 после двух ходов, ход X
+    private static GameState small() {
+        GameState state = new GameState(7, 7, 4);
+        state.makeMove(3, 3, "X");
+        state.makeMove(2, 3, "O");
+        state.setCurrentPlayer('X');
+        return state;
+    }
+}
@@ -0,0 +1,219 @@
+//Замер проверки победы на поле 3x3: до и после таблицы масок
+
+
+package bench;
+
+import shared.GameState;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+// Сравнивает прежнюю проверку победы (доска String[][] и 24 сравнения
+// String.equals на игрока, как в GameSession.checkWin до таблицы масок)
+// с проверкой по таблице выигрышных линий GameState.findWinLine.
+// Операция - проверка обоих игроков на одной позиции; позиции - 1024 случайные
+// допустимые позиции 3x3, одни и те же для обоих вариантов. Печать при победе,
+// которая была в старом коде, в замер не входит.
+//
+// Устроено как JMH без JMH (в дереве нет сборки, чтобы его подключить): каждый
+// вариант идет в отдельных процессах JVM (forks), сначала прогрев, затем
+// измерения фиксированной длины; результат - среднее по всем измерениям
+// всех процессов и 99.9% доверительный интервал.
+//
+// Запуск: java -cp <classes> bench.WinCheck [--forks=3] [--warmup=5] [--iterations=10]
+//         [--time-ms=1000]
+public class WinCheck {
+    private static final int POSITIONS = 1024;
+    private static final String[] VARIANTS = {"strings", "masks"};
+
+    // результат проверок: не дает JIT выбросить вычисления
+    private static volatile int sink;
+
+    public static void main(String[] args) throws Exception {
+        int forks = 3;
+        int warmup = 5;
+        int iterations = 10;
+        long timeMillis = 1000;
+        String run = null;
+        for (String arg : args) {
+            if (arg.startsWith("--forks=")) {
+                forks = Integer.parseInt(arg.substring("--forks=".length()));
+            } else if (arg.startsWith("--warmup=")) {
+                warmup = Integer.parseInt(arg.substring("--warmup=".length()));
+            } else if (arg.startsWith("--iterations=")) {
+                iterations = Integer.parseInt(arg.substring("--iterations=".length()));
+            } else if (arg.startsWith("--time-ms=")) {
+                timeMillis = Long.parseLong(arg.substring("--time-ms=".length()));
+            } else if (arg.startsWith("--run=")) {
+                run = arg.substring("--run=".length());
+            } else {
+                System.out.println("Неизвестный аргумент: " + arg);
+                return;
+            }
+        }
+
+        if (run != null) {
+            // процесс одного варианта: печатает нс на позицию за каждое измерение
+            for (double result : measure(run, warmup, iterations, timeMillis)) {
+                System.out.println(result);
+            }
+            return;
+        }
+
+        System.out.println("JDK " + System.getProperty("java.version") + ", процессов на вариант " + forks +
+                ", прогрев " + warmup + " x " + timeMillis + " мс, измерений " + iterations + " x " + timeMillis + " мс");
+        System.out.println(String.format(Locale.ROOT, "%-10s %14s %12s", "вариант", "нс/позицию", "± 99.9%"));
+        for (String variant : VARIANTS) {
+            List<Double> results = new ArrayList<>();
+            for (int fork = 0; fork < forks; fork++) {
+                results.addAll(fork(variant, warmup, iterations, timeMillis));
+            }
+            double mean = 0;
+            for (double result : results) {
+                mean += result;
+            }
+            mean /= results.size();
+            double variance = 0;
+            for (double result : results) {
+                variance += (result - mean) * (result - mean);
+            }
+            double error = results.size() > 1 ?
+                    3.29 * Math.sqrt(variance / (results.size() - 1)) / Math.sqrt(results.size()) : 0;
+            System.out.println(String.format(Locale.ROOT, "%-10s %14.2f %12.2f", variant, mean, error));
+        }
+    }
+
+    private static List<Double> fork(String variant, int warmup, int iterations, long timeMillis)
+            throws IOException, InterruptedException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                WinCheck.class.getName(), "--run=" + variant, "--warmup=" + warmup,
+                "--iterations=" + iterations, "--time-ms=" + timeMillis)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        List<Double> results = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                results.add(Double.parseDouble(line.trim()));
+            }
+        }
+        if (process.waitFor() != 0 || results.size() != iterations) {
+            throw new IOException("Процесс варианта " + variant + " завершился с ошибкой");
+        }
+        return results;
+    }
+
+    private static double[] measure(String variant, int warmup, int iterations, long timeMillis) {
+        GameState[] states = positions();
+        String[][][] boards = new String[POSITIONS][][];
+        int[] xMasks = new int[POSITIONS];
+        int[] oMasks = new int[POSITIONS];
+        for (int i = 0; i < POSITIONS; i++) {
+            boards[i] = states[i].getBoard();
+            xMasks[i] = states[i].getMask("X");
+            oMasks[i] = states[i].getMask("O");
+        }
+        boolean strings;
+        if ("strings".equals(variant)) {
+            strings = true;
+        } else if ("masks".equals(variant)) {
+            strings = false;
+        } else {
+            throw new IllegalArgumentException("Неизвестный вариант: " + variant);
+        }
+
+        double[] results = new double[iterations];
+        for (int i = -warmup; i < iterations; i++) {
+            long deadline = System.nanoTime() + timeMillis * 1_000_000;
+            long operations = 0;
+            long start = System.nanoTime();
+            long end;
+            do {
+                sink = strings ? passStrings(boards) : passMasks(xMasks, oMasks);
+                operations += POSITIONS;
+                end = System.nanoTime();
+            } while (end < deadline);
+            if (i >= 0) {
+                results[i] = (double) (end - start) / operations;
+            }
+        }
+        return results;
+    }
+
+    private static int passStrings(String[][][] boards) {
+        int wins = 0;
+        for (String[][] board : boards) {
+            if (checkWinStrings(board, "X") || checkWinStrings(board, "O")) {
+                wins++;
+            }
+        }
+        return wins;
+    }
+
+    private static int passMasks(int[] xMasks, int[] oMasks) {
+        int wins = 0;
+        for (int i = 0; i < xMasks.length; i++) {
+            if (GameState.findWinLine(xMasks[i]) != 0 || GameState.findWinLine(oMasks[i]) != 0) {
+                wins++;
+            }
+        }
+        return wins;
+    }
+
+    // прежняя GameSession.checkWin без печати
+    private static boolean checkWinStrings(String[][] board, String symbol) {
+        for (int i = 0; i < 3; i++) {
+            if (symbol.equals(board[i][0]) &&
+                    symbol.equals(board[i][1]) &&
+                    symbol.equals(board[i][2])) {
+                return true;
+            }
+        }
+        for (int i = 0; i < 3; i++) {
+            if (symbol.equals(board[0][i]) &&
+                    symbol.equals(board[1][i]) &&
+                    symbol.equals(board[2][i])) {
+                return true;
+            }
+        }
+        if (symbol.equals(board[0][0]) &&
+                symbol.equals(board[1][1]) &&
+                symbol.equals(board[2][2])) {
+            return true;
+        }
+        return symbol.equals(board[0][2]) &&
+                symbol.equals(board[1][1]) &&
+                symbol.equals(board[2][0]);
+    }
+
+    // случайные партии, оборванные на случайном ходу; начальное значение
+    // зафиксировано, чтобы все процессы мерили одни и те же позиции
+    private static GameState[] positions() {
+        Random random = new Random(9);
+        GameState[] states = new GameState[POSITIONS];
+        for (int i = 0; i < POSITIONS; i++) {
+            GameState state = new GameState();
+            int stones = random.nextInt(GameState.CELLS + 1);
+            String symbol = "X";
+            for (int s = 0; s < stones; s++) {
+                int row;
+                int col;
+                do {
+                    row = random.nextInt(GameState.SIZE);
+                    col = random.nextInt(GameState.SIZE);
+                } while (!state.isEmpty(row, col));
+                state.makeMove(row, col, symbol);
+                symbol = "X".equals(symbol) ? "O" : "X";
+            }
+            states[i] = state;
+        }
+        return states;
+    }
+}
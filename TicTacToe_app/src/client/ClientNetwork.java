@@ -4,17 +4,23 @@ import shared.*;
 import java.io.*;
 import java.net.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 //Сетевое подключение к серверу
 public class ClientNetwork {
     // сетевые компоненты
     private Socket socket;
-    private ObjectOutputStream outputStream;
-    private ObjectInputStream inputStream;
+    private DataOutputStream outputStream;
+    private DataInputStream inputStream;
+    private BinaryCodec codec = new BinaryCodec();
     private ExecutorService executorService;
 
-    // обработчики событий
+    // запросы, ожидающие ответа, по номеру запроса
+    private final ConcurrentHashMap<Integer, CompletableFuture<GameMessage>> pendingRequests = new ConcurrentHashMap<>();
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+
+    // обработчик событий сервера, которые не являются ответом на запрос
     private Consumer<GameMessage> messageHandler;
     private boolean connected;
     private String currentUsername;
@@ -24,8 +30,10 @@ public class ClientNetwork {
         try {
             // создание входных точек, потоков и интерфейс для их управления
             this.socket = new Socket(host, port);
-            this.outputStream = new ObjectOutputStream(socket.getOutputStream());
-            this.inputStream = new ObjectInputStream(socket.getInputStream());
+            this.socket.setTcpNoDelay(true);
+            this.outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            this.inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            handshake();
             this.executorService = Executors.newSingleThreadExecutor();
             this.connected = true;
             System.out.println("Подключено к серверу " + host + ":" + port);
@@ -34,6 +42,27 @@ public class ClientNetwork {
         }
     }
 
+    // согласование версии бинарного протокола: HELLO и ответ сервера
+    private void handshake() throws IOException {
+        outputStream.write(BinaryCodec.helloFrame(BinaryCodec.VERSION));
+        outputStream.flush();
+
+        byte[] payload = FrameDecoder.readFrame(inputStream);
+        if (!BinaryCodec.isHello(payload)) {
+            socket.close();
+            throw new IOException("Сервер не поддерживает бинарный протокол");
+        }
+        GameMessage hello = codec.decode(payload);
+        // дальше говорим на версии, выбранной сервером: старый сервер знает не все поля
+        int version = (Integer) hello.getData("version");
+        if (version < 1 || version > BinaryCodec.VERSION) {
+            socket.close();
+            throw new IOException("Сервер выбрал неизвестную версию протокола: " + version);
+        }
+        codec = new BinaryCodec(version);
+        System.out.println("Версия протокола: " + version);
+    }
+
     // метод для запуска потока для приема сообщений от сервера
     public void startListening(Consumer<GameMessage> handler) {
         this.messageHandler = handler;
@@ -41,21 +70,23 @@ public class ClientNetwork {
             try {
                 // пока есть соединение
                 while (connected) {
-                    // читает входной поток и обрабатывает его
-                    Object obj = inputStream.readObject();
-                    if (obj instanceof GameMessage) {
-                        GameMessage message = (GameMessage) obj;
-                        if (messageHandler != null) {
-                            messageHandler.accept(message);
-                        }
-                    } else {
-                        System.err.println("Получен неизвестный объект: " + obj.getClass());
+                    // читает очередной кадр и обрабатывает его
+                    GameMessage message = codec.decode(FrameDecoder.readFrame(inputStream));
+
+                    // ответ на запрос завершает его future, остальное - события сервера
+                    CompletableFuture<GameMessage> request = message.getRequestId() != 0
+                            ? pendingRequests.remove(message.getRequestId())
+                            : null;
+                    if (request != null) {
+                        request.complete(message);
+                    } else if (messageHandler != null) {
+                        messageHandler.accept(message);
                     }
                 }
             } catch (EOFException e) {
                 System.out.println("Соединение закрыто сервером");
                 disconnect();
-            } catch (IOException | ClassNotFoundException e) {
+            } catch (IOException e) {
                 if (connected) {
                     System.err.println("Ошибка при чтении: " + e.getMessage());
                     disconnect();
@@ -64,103 +95,118 @@ public class ClientNetwork {
         });
     }
 
-    // метод отправляющий сообщения
-    public void sendMessage(GameMessage message) {
+    // метод отправляющий сообщения (вызывается из разных потоков)
+    public synchronized boolean sendMessage(GameMessage message) {
         // при отсутствии связи
         if (!connected) {
             System.err.println("Попытка отправить сообщение при разорванном соединении");
-            return;
+            return false;
         }
 
         try {
-            outputStream.writeObject(message);
+            outputStream.write(codec.encode(message));
             outputStream.flush();
             System.out.println("Отправлено сообщение типа: " + message.getType());
+            return true;
         } catch (IOException e) {
             System.err.println("Ошибка при отправке: " + e.getMessage());
             disconnect();
+            return false;
         }
     }
 
-    // отправка запроса на вход пользователя
-    public boolean login(String username, String password) {
-        try {
-            GameMessage message = new GameMessage("LOGIN");
-            message.addData("username", username);
-            message.addData("password", password);
+    // отправка запроса: future завершится ответом с тем же номером запроса,
+    // поэтому несколько запросов могут ждать ответа одновременно
+    public CompletableFuture<GameMessage> sendRequest(GameMessage message) {
+        int requestId = nextRequestId.updateAndGet(id -> id == Integer.MAX_VALUE ? 1 : id + 1);
+        message.setRequestId(requestId);
 
-            sendMessage(message);
-            currentUsername = username;
-            return true;
-        } catch (Exception e) {
-            System.err.println("Ошибка при входе: " + e.getMessage());
-            return false;
+        CompletableFuture<GameMessage> future = new CompletableFuture<>();
+        pendingRequests.put(requestId, future);
+
+        if (!sendMessage(message)) {
+            pendingRequests.remove(requestId);
+            future.completeExceptionally(new IOException("Нет соединения с сервером"));
         }
+        return future;
+    }
+
+    // отправка запроса на вход пользователя
+    public CompletableFuture<GameMessage> login(String username, String password) {
+        GameMessage message = new GameMessage("LOGIN");
+        message.addData("username", username);
+        message.addData("password", password);
+
+        currentUsername = username;
+        return sendRequest(message);
     }
 
     // отправка запроса на регистрацию пользователя
-    public boolean register(String username, String password) {
-        try {
-            GameMessage message = new GameMessage("REGISTER");
-            message.addData("username", username);
-            message.addData("password", password);
+    public CompletableFuture<GameMessage> register(String username, String password) {
+        GameMessage message = new GameMessage("REGISTER");
+        message.addData("username", username);
+        message.addData("password", password);
 
-            sendMessage(message);
-            return true;
-        } catch (Exception e) {
-            System.err.println("Ошибка при регистрации: " + e.getMessage());
-            return false;
-        }
+        return sendRequest(message);
     }
 
     // отправка запроса на создание новой игры
-    public void createNewGame(boolean vsAI) {
-        try {
-            GameMessage message = new GameMessage("NEW_GAME");
-            message.addData("player", currentUsername);
-            message.addData("vsAI", vsAI);
+    public CompletableFuture<GameMessage> createNewGame(boolean vsAI) {
+        return createNewGame(vsAI, null);
+    }
 
-            sendMessage(message);
-        } catch (Exception e) {
-            System.err.println("Ошибка при создании игры: " + e.getMessage());
-        }
+    // difficulty - уровень ИИ ("EASY", "HARD" или "PERFECT"), null - уровень сервера по умолчанию
+    public CompletableFuture<GameMessage> createNewGame(boolean vsAI, String difficulty) {
+        return createNewGame(vsAI, difficulty, 3, 3, 3);
     }
 
-    // отправка запроса совершение хода
-    public void sendMove(String gameId, int row, int col) {
-        try {
-            System.out.println("\n=== КЛИЕНТ: Отправка хода ===");
-            System.out.println("GameID: " + gameId);
-            System.out.println("Ход: [" + row + "," + col + "]");
-            System.out.println("Пользователь: " + currentUsername);
+    // игра на поле rows x cols, победа - winLength знаков подряд
+    public CompletableFuture<GameMessage> createNewGame(boolean vsAI, String difficulty,
+                                                        int rows, int cols, int winLength) {
+        return sendRequest(newGameMessage(vsAI, difficulty, rows, cols, winLength));
+    }
 
-            GameMessage message = new GameMessage("MOVE");
-            message.addData("gameId", gameId);
-            message.addData("player", currentUsername);
-            message.addData("move", new Move(row, col));
+    // игра в ультимейт: девять полей 3x3 на поле 9x9
+    public CompletableFuture<GameMessage> createUltimateGame(boolean vsAI, String difficulty) {
+        GameMessage message = newGameMessage(vsAI, difficulty, 9, 9, 3);
+        message.addData("ultimate", true);
+        return sendRequest(message);
+    }
 
-            // проверка сериализацию Move
-            Move m = new Move(row, col);
-            System.out.println("Создан Move: row=" + m.getRow() + ", col=" + m.getCol());
+    private GameMessage newGameMessage(boolean vsAI, String difficulty, int rows, int cols, int winLength) {
+        GameMessage message = new GameMessage("NEW_GAME");
+        message.addData("player", currentUsername);
+        message.addData("vsAI", vsAI);
+        if (difficulty != null) {
+            message.addData("difficulty", difficulty);
+        }
+        message.addData("rows", rows);
+        message.addData("cols", cols);
+        message.addData("winLength", winLength);
+        return message;
+    }
 
-            sendMessage(message);
+    // отправка запроса совершение хода
+    public CompletableFuture<GameMessage> sendMove(String gameId, int row, int col) {
+        System.out.println("\n=== КЛИЕНТ: Отправка хода ===");
+        System.out.println("GameID: " + gameId);
+        System.out.println("Ход: [" + row + "," + col + "]");
+        System.out.println("Пользователь: " + currentUsername);
 
-        } catch (Exception e) {
-            System.err.println("Ошибка при отправке хода: " + e.getMessage());
-            e.printStackTrace();
-        }
+        GameMessage message = new GameMessage("MOVE");
+        message.addData("gameId", gameId);
+        message.addData("player", currentUsername);
+        message.addData("move", new Move(row, col));
+
+        return sendRequest(message);
     }
 
     // запрос текущего состояния игры
-    public void getGameState(String gameId) {
-        try {
-            GameMessage message = new GameMessage("GET_GAME_STATE");
-            message.addData("gameId", gameId);
+    public CompletableFuture<GameMessage> getGameState(String gameId) {
+        GameMessage message = new GameMessage("GET_GAME_STATE");
+        message.addData("gameId", gameId);
 
-            sendMessage(message);
-        } catch (Exception e) {
-            System.err.println("Ошибка при запросе состояния: " + e.getMessage());
-        }
+        return sendRequest(message);
     }
 
     // завершение работы с сервером
@@ -174,6 +220,12 @@ public class ClientNetwork {
             // ошибка игнорируется при закрытии
         }
 
+        // ответов на отправленные запросы уже не будет
+        for (CompletableFuture<GameMessage> request : pendingRequests.values()) {
+            request.completeExceptionally(new IOException("Соединение закрыто"));
+        }
+        pendingRequests.clear();
+
         if (executorService != null) {
             executorService.shutdown();
             try {
@@ -190,41 +242,29 @@ public class ClientNetwork {
     }
 
     // отправка запроса на сохранение игры
-    public void saveGame(String gameId) {
-        try {
-            GameMessage message = new GameMessage("SAVE_GAME");
-            message.addData("gameId", gameId);
-            message.addData("player", currentUsername);
+    public CompletableFuture<GameMessage> saveGame(String gameId) {
+        GameMessage message = new GameMessage("SAVE_GAME");
+        message.addData("gameId", gameId);
+        message.addData("player", currentUsername);
 
-            sendMessage(message);
-        } catch (Exception e) {
-            System.err.println("Ошибка при сохранении игры: " + e.getMessage());
-        }
+        return sendRequest(message);
     }
 
     // отправка запроса на загрузку игры
-    public void loadSavedGame(String gameId) {
-        try {
-            GameMessage message = new GameMessage("LOAD_GAME");
-            message.addData("gameId", gameId);
-            message.addData("player", currentUsername);
+    public CompletableFuture<GameMessage> loadSavedGame(String gameId) {
+        GameMessage message = new GameMessage("LOAD_GAME");
+        message.addData("gameId", gameId);
+        message.addData("player", currentUsername);
 
-            sendMessage(message);
-        } catch (Exception e) {
-            System.err.println("Ошибка при загрузке игры: " + e.getMessage());
-        }
+        return sendRequest(message);
     }
 
     // отправка запроса на получение сохраненных игр
-    public void getSavedGames() {
-        try {
-            GameMessage message = new GameMessage("GET_SAVED_GAMES");
-            message.addData("player", currentUsername);
+    public CompletableFuture<GameMessage> getSavedGames() {
+        GameMessage message = new GameMessage("GET_SAVED_GAMES");
+        message.addData("player", currentUsername);
 
-            sendMessage(message);
-        } catch (Exception e) {
-            System.err.println("Ошибка при получении списка игр: " + e.getMessage());
-        }
+        return sendRequest(message);
     }
 
     // проверка соединения
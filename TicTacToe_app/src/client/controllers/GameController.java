@@ -4,10 +4,10 @@ import client.ClientNetwork;
 import client.ui.GameWindow;
 import shared.*;
 import javax.swing.*;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 // класс отвечающий за игровой контроллер
 public class GameController {
@@ -22,9 +22,22 @@ public class GameController {
     private boolean myTurn = false;
     private boolean gameActive = false;
     private boolean vsAI = true;
-
-    // сетевые компоненты
-    private Timer gameStateTimer;
+    // уровень ИИ, который запрашивается у сервера
+    private String aiDifficulty = "PERFECT";
+    // размер текущего поля; приходит от сервера вместе с состоянием игры
+    private int boardRows = 3;
+    private int boardCols = 3;
+    // число знаков на показанной доске: ответ на ход может прийти позже
+    // события с ходом ИИ, и более старое состояние показывать нельзя
+    private int shownStones = 0;
+
+    // варианты игры в диалоге новой игры: строки, столбцы, длина линии
+    private static final String[] VARIANT_NAMES = {"3x3", "4x4, 4 в ряд", "7x7, 4 в ряд", "15x15, 5 в ряд"};
+    private static final int[][] VARIANTS = {{3, 3, 3}, {4, 4, 4}, {7, 7, 4}, {15, 15, 5}};
+    // ультимейт идет в диалоге после вариантов m,n,k
+    private static final String ULTIMATE_NAME = "Ультимейт 9x9";
+
+    // счетчик ходов
     private int moveCount = 0;
 
     // счетчик итогов игры
@@ -84,6 +97,20 @@ public class GameController {
 
     // метод, который запускает новую игру
     public void startNewGame(boolean vsAI) {
+        startNewGame(vsAI, 3, 3, 3);
+    }
+
+    // новая игра на поле rows x cols, победа - winLength знаков подряд
+    public void startNewGame(boolean vsAI, int rows, int cols, int winLength) {
+        startNewGame(vsAI, rows, cols, winLength, false);
+    }
+
+    // новая игра в ультимейт: девять полей 3x3
+    public void startUltimateGame(boolean vsAI) {
+        startNewGame(vsAI, 9, 9, 3, true);
+    }
+
+    private void startNewGame(boolean vsAI, int rows, int cols, int winLength, boolean ultimate) {
         // Завершение текущей игры перед началом новой
         if (gameActive && currentGameId != null) {
             endGame("Завершено для новой игры");
@@ -101,17 +128,20 @@ public class GameController {
         gameFrame.disableBoard();
 
         // Отправка запроса на сервер для начала новой игры
-        clientNetwork.createNewGame(vsAI);
+        String difficulty = vsAI ? aiDifficulty : null;
+        onResponse(ultimate ? clientNetwork.createUltimateGame(vsAI, difficulty) :
+                        clientNetwork.createNewGame(vsAI, difficulty, rows, cols, winLength),
+                this::handleNewGameResponse);
     }
 
     // метод, который сбрасывает локальное состояние контроллера
     private void resetLocalState() {
-        stopGameStatePolling();
         currentGameId = null;
         playerSymbol = 'X';
         myTurn = false;
         gameActive = false;
         moveCount = 0;
+        shownStones = 0;
     }
 
     // метод, отвечающий за обработку хода игрока
@@ -122,7 +152,7 @@ public class GameController {
         }
 
         // Проверка валидности координат
-        if (row < 0 || row > 2 || col < 0 || col > 2) {
+        if (row < 0 || row >= boardRows || col < 0 || col >= boardCols) {
             gameFrame.setStatus("Неверные координаты");
             return;
         }
@@ -134,7 +164,7 @@ public class GameController {
         System.out.println("Символ: " + playerSymbol);
 
         // Локальное обновление клетки для мгновенной обратной связи
-        String[][] tempBoard = new String[3][3];
+        String[][] tempBoard = new String[boardRows][boardCols];
         tempBoard[row][col] = String.valueOf(playerSymbol);
         gameFrame.updateBoard(tempBoard);
 
@@ -143,25 +173,31 @@ public class GameController {
         gameFrame.setStatus("Ход отправлен...");
 
         // Отправление ход на сервер
-        clientNetwork.sendMove(currentGameId, row, col);
+        onResponse(clientNetwork.sendMove(currentGameId, row, col), this::handleMoveResponse);
         myTurn = false;
         moveCount++;
     }
 
     // метод, показывающий диалоговое окно для создания новой игры
     private void showNewGameDialog() {
-        String[] options = {"Да", "Нет"};
+        String[] options = new String[VARIANT_NAMES.length + 2];
+        System.arraycopy(VARIANT_NAMES, 0, options, 0, VARIANT_NAMES.length);
+        options[VARIANT_NAMES.length] = ULTIMATE_NAME;
+        options[VARIANT_NAMES.length + 1] = "Отмена";
         int choice = JOptionPane.showOptionDialog(gameFrame,
-                "Начать новую игру:",
+                "Начать новую игру на поле:",
                 "Новая игра",
-                JOptionPane.YES_NO_OPTION,
+                JOptionPane.DEFAULT_OPTION,
                 JOptionPane.QUESTION_MESSAGE,
                 null,
                 options,
                 options[0]);
 
-        if (choice == 0) {
-            startNewGame(true);
+        if (choice >= 0 && choice < VARIANTS.length) {
+            int[] variant = VARIANTS[choice];
+            startNewGame(true, variant[0], variant[1], variant[2]);
+        } else if (choice == VARIANTS.length) {
+            startUltimateGame(true);
         }
     }
 
@@ -193,7 +229,6 @@ public class GameController {
     // метод отвечающий за завершение ткущей игровой сессии
     private void endGame(String message) {
         gameActive = false;
-        stopGameStatePolling();
         gameFrame.disableBoard();
         gameFrame.clearBoard();
         gameFrame.setStatus(message);
@@ -207,7 +242,7 @@ public class GameController {
             gameFrame.showInfoDialog("Информация",
                     "Сохранение игры.\n" +
                             "ID игры: " + currentGameId);
-            clientNetwork.saveGame(currentGameId);
+            onResponse(clientNetwork.saveGame(currentGameId), this::handleSaveGameResponse);
 
         } else {
             gameFrame.showInfoDialog("Информация", "Нет активной игры для сохранения");
@@ -217,7 +252,7 @@ public class GameController {
     // метод отвечающий за загрузку игры
     private void loadGame() {
         // запрос списка сохраненных игр у сервера
-        clientNetwork.getSavedGames();
+        onResponse(clientNetwork.getSavedGames(), this::handleGetSavedGamesResponse);
         gameFrame.setStatus("Загрузка списка сохраненных игр...");
     }
 
@@ -243,12 +278,37 @@ public class GameController {
 
         if (selectedGame != null) {
             isSavedGame = true;
-            clientNetwork.loadSavedGame(selectedGame);
+            onResponse(clientNetwork.loadSavedGame(selectedGame), this::handleLoadGameResponse);
             gameFrame.setStatus("Загрузка игры " + selectedGame + "...");
         }
     }
 
-    // основной обработчик сообщений от сервера
+    // ответ на конкретный запрос обрабатывается в EDT своим обработчиком,
+    // ошибка сервера - общим обработчиком ошибок
+    private void onResponse(CompletableFuture<GameMessage> request, Consumer<GameMessage> handler) {
+        request.whenComplete((response, error) -> SwingUtilities.invokeLater(() -> {
+            if (error != null) {
+                System.err.println("Запрос не выполнен: " + error.getMessage());
+                gameFrame.setStatus("Нет связи с сервером");
+                return;
+            }
+
+            try {
+                if ("ERROR".equals(response.getType())) {
+                    handleError(response);
+                } else {
+                    handler.accept(response);
+                }
+            } catch (Exception e) {
+                System.err.println("Ошибка обработки ответа: " + e.getMessage());
+                e.printStackTrace();
+                gameFrame.showErrorDialog("Ошибка",
+                        "Ошибка обработки ответа сервера: " + e.getMessage());
+            }
+        }));
+    }
+
+    // обработчик событий, которые сервер присылает сам (не в ответ на запрос)
     public void handleServerMessage(GameMessage message) {
         SwingUtilities.invokeLater(() -> {
             String type = message.getType();
@@ -256,33 +316,8 @@ public class GameController {
 
             try {
                 switch (type) {
-                    case "NEW_GAME_RESPONSE":
-                        handleNewGameResponse(message);
-                        break;
-
-                    case "MOVE_RESPONSE":
-                        handleMoveResponse(message);
-                        break;
-
-                    case "GAME_STATE_RESPONSE":
-                        handleGameStateResponse(message);
-                        break;
-
-                    case "SAVE_GAME_RESPONSE":
-                        handleSaveGameResponse(message);
-                        break;
-
-                    case "LOAD_GAME_RESPONSE":
-                        handleLoadGameResponse(message);
-                        break;
-
-                    case "GET_SAVED_GAMES_RESPONSE":
-                        handleGetSavedGamesResponse(message);
-                        break;
-
-                    case "LOGIN_RESPONSE":
-                    case "REGISTER_RESPONSE":
-                        // эти сообщения обрабатываются LoginController
+                    case "GAME_STATE_UPDATE":
+                        handleGameStateUpdate(message);
                         break;
 
                     case "ERROR":
@@ -344,11 +379,9 @@ public class GameController {
                 gameFrame.setStatus("Ваш ход! Вы играете за " + playerSymbol);
                 gameFrame.enableBoard();
             } else {
+                // ход противника придет от сервера событием GAME_STATE_UPDATE
                 gameFrame.setStatus("Ожидание хода противника...");
                 gameFrame.disableBoard();
-                if (vsAI && "AI".equals(player2)) {
-                    startGameStatePolling();
-                }
             }
 
             // установка информации об игроке
@@ -374,6 +407,12 @@ public class GameController {
     private void handleMoveResponse(GameMessage message) {
         System.out.println("\n=== КЛИЕНТ: Обработка MOVE_RESPONSE ===");
 
+        // состояние уже могло прийти событием сервера, и игра закончилась
+        if (!isCurrentGame(message)) {
+            System.out.println("Ответ относится к другой игре, пропускаем");
+            return;
+        }
+
         try {
             Boolean success = (Boolean) message.getData("success");
             System.out.println("Success: " + success);
@@ -501,11 +540,19 @@ public class GameController {
 
     // метод отвечающий за обработку состояния игры после хода
     private void processGameState(GameState gameState) {
+        if (gameState.getStoneCount() < shownStones) {
+            System.out.println("Получено устаревшее состояние игры, пропускаем");
+            return;
+        }
+
         // обновление интерфейса
         updateGameState(gameState);
 
         // проверка окончания игры
         if (gameState.isGameOver()) {
+            // линию победы определяет сервер
+            gameFrame.highlightWinningLine(gameState.getWinLineCells());
+
             String winner = gameState.getWinner();
             if ("DRAW".equals(winner)) {
                 draws++;
@@ -539,11 +586,6 @@ public class GameController {
             } else {
                 gameFrame.setStatus("Ход противника...");
                 gameFrame.disableBoard();
-
-                // запуск опроса для получения хода ИИ
-                if (vsAI) {
-                    startGameStatePolling();
-                }
             }
         }
     }
@@ -553,48 +595,27 @@ public class GameController {
         gameFrame.setScoreInfo(wins, losses, draws);
     }
 
-    // метод отвечающий за обработку ответа на состояние игры
-    private void handleGameStateResponse(GameMessage message) {
-        try {
-            System.out.println("\n=== КЛИЕНТ: Обработка GAME_STATE_RESPONSE ===");
-
-            Object gameStateObj = message.getData("gameState");
-            Boolean gameOver = (Boolean) message.getData("gameOver");
+    // обработка события сервера об изменении состояния игры (ход соперника или ИИ)
+    private void handleGameStateUpdate(GameMessage message) {
+        System.out.println("\n=== КЛИЕНТ: Обработка GAME_STATE_UPDATE ===");
 
-            if (gameStateObj instanceof GameState) {
-                GameState gameState = (GameState) gameStateObj;
-                updateGameState(gameState);
-
-                // если игра закончилась
-                if (gameOver != null && gameOver) {
-                    String winner = (String) message.getData("winner");
-                    if ("DRAW".equals(winner)) {
-                        endGame("Ничья!");
-                    } else if (winner != null && winner.equals(clientNetwork.getCurrentUsername())) {
-                        endGame("Поздравляем! Вы победили!");
-                    } else {
-                        endGame("Игра окончена. Вы проиграли.");
-                    }
-                } else {
-                    // обновление статуса хода
-                    myTurn = (gameState.getCurrentPlayer() == playerSymbol);
+        if (!gameActive || !isCurrentGame(message)) {
+            System.out.println("Событие относится к другой игре, пропускаем");
+            return;
+        }
 
-                    if (myTurn) {
-                        stopGameStatePolling();
-                        gameFrame.setStatus("Ваш ход!");
-                        gameFrame.enableBoard();
-                    } else {
-                        gameFrame.setStatus("Ход противника...");
-                        gameFrame.disableBoard();
-                    }
-                }
-            }
-        } catch (Exception e) {
-            System.err.println("Ошибка обработки состояния игры: " + e.getMessage());
-            e.printStackTrace();
+        Object gameStateObj = message.getData("gameState");
+        if (gameStateObj instanceof GameState) {
+            processGameState((GameState) gameStateObj);
         }
     }
 
+    // проверка, что сообщение относится к текущей игре
+    private boolean isCurrentGame(GameMessage message) {
+        Object gameId = message.getData("gameId");
+        return gameId == null || gameId.equals(currentGameId);
+    }
+
     // метод отвечающий за обработку ошибки
     private void handleError(GameMessage message) {
         String error = "Неизвестная ошибка";
@@ -615,15 +636,18 @@ public class GameController {
     private void updateGameState(GameState gameState) {
         try {
             String[][] board = gameState.getBoard();
-            String[][] displayBoard = new String[3][3];
+            boardRows = gameState.getRows();
+            boardCols = gameState.getCols();
+            shownStones = gameState.getStoneCount();
+            String[][] displayBoard = new String[boardRows][boardCols];
 
             System.out.println("\n=== КЛИЕНТ: Обновление UI доски ===");
             System.out.println("Текущий игрок на сервере: " + gameState.getCurrentPlayer());
             System.out.println("Игра окончена: " + gameState.isGameOver());
             System.out.println("Победитель: " + gameState.getWinner());
 
-            for (int i = 0; i < 3; i++) {
-                for (int j = 0; j < 3; j++) {
+            for (int i = 0; i < boardRows; i++) {
+                for (int j = 0; j < boardCols; j++) {
                     String cell = board[i][j];
                     System.out.print("[" + i + "," + j + "]='" + (cell == null ? "null" : cell) + "' ");
 
@@ -637,13 +661,17 @@ public class GameController {
             }
 
             System.out.println("DisplayBoard для UI:");
-            for (int i = 0; i < 3; i++) {
-                for (int j = 0; j < 3; j++) {
+            for (int i = 0; i < boardRows; i++) {
+                for (int j = 0; j < boardCols; j++) {
                     System.out.print("'" + displayBoard[i][j] + "' ");
                 }
                 System.out.println();
             }
 
+            // в ультимейте видны малые поля и доступно только поле, куда отправил соперник
+            gameFrame.setBlockSize(gameState.isUltimate() ? 3 : 0);
+            gameFrame.setAllowedCells(gameState.isUltimate() ? UltimateBoard.from(gameState).legalCells() : null);
+
             // Обновление интерфейса
             gameFrame.updateBoard(displayBoard);
             System.out.println("UI обновлен\n");
@@ -662,39 +690,6 @@ public class GameController {
         }
     }
 
-    // периодический опрос состояния игры
-    private void startGameStatePolling() {
-        stopGameStatePolling(); // Остановка предыдущего таймера
-
-        if (!gameActive || currentGameId == null || myTurn) {
-            return;
-        }
-
-        System.out.println("Запуск polling для игры: " + currentGameId);
-        // новый таймер
-        gameStateTimer = new Timer(true);
-        gameStateTimer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                // если игра активна и сейчас не ход игрока
-                if (gameActive && currentGameId != null && !myTurn) {
-                    System.out.println("Опрашиваем состояние игры: " + currentGameId);
-                    clientNetwork.getGameState(currentGameId);
-                } else {
-                    stopGameStatePolling();
-                }
-            }
-        }, 1000, 2000); // Начинаем через 1 сек, повторяем каждые 2 сек
-    }
-
-    // прекращение периодического опроса состояния игры
-    private void stopGameStatePolling() {
-        if (gameStateTimer != null) {
-            gameStateTimer.cancel();
-            gameStateTimer = null;
-        }
-    }
-
     // метод отвечающий за выход игры
     public void setOnExit(Runnable onExit) {
         this.onExit = onExit;
@@ -5,6 +5,7 @@ import client.ClientNetwork;
 import client.ui.LoginWindow;
 import shared.GameMessage;
 import javax.swing.SwingUtilities;
+import java.util.concurrent.CompletableFuture;
 
 // контроллер авторизации
 public class LoginController {
@@ -49,11 +50,7 @@ public class LoginController {
         }
 
         loginFrame.setStatus("Отправка запроса на вход...");
-        boolean sent = clientNetwork.login(username.trim(), password.trim());
-
-        if (!sent) {
-            loginFrame.setStatus("Ошибка отправки запроса");
-        }
+        onResponse(clientNetwork.login(username.trim(), password.trim()));
     }
 
     // метод отвечающий за обработку попытки регистрации пользователя
@@ -82,11 +79,18 @@ public class LoginController {
         }
 
         loginFrame.setStatus("Отправка запроса на регистрацию...");
-        boolean sent = clientNetwork.register(username.trim(), password.trim());
+        onResponse(clientNetwork.register(username.trim(), password.trim()));
+    }
 
-        if (!sent) {
-            loginFrame.setStatus("Ошибка отправки запроса");
-        }
+    // ответ на запрос входа или регистрации
+    private void onResponse(CompletableFuture<GameMessage> request) {
+        request.whenComplete((response, error) -> {
+            if (error != null) {
+                SwingUtilities.invokeLater(() -> loginFrame.setStatus("Ошибка отправки запроса"));
+            } else {
+                handleServerResponse(response);
+            }
+        });
     }
 
     // метод отвечающий за обработку сообщений от сервера при попытке регистрации
@@ -1,18 +1,26 @@
 package client.ui;
 
 import javax.swing.*;
+import javax.swing.border.Border;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 
-// основной класс для графического отображения поля 3х3
+// основной класс для графического отображения поля (по умолчанию 3х3)
 public class GameBoardPanel extends JPanel {
+    // размер поля в пикселях, который делится между клетками
+    private static final int BOARD_PIXELS = 450;
+
     // Двумерный массив для хранения ссылок на кнопки-клетки игрового поля
     private JButton[][] cells;
     // Слушатель событий
     private CellClickListener cellClickListener;
+    // размер блока, выделенного толстой рамкой (3 в ультимейте), 0 - без блоков
+    private int blockSize = 0;
+    // клетки, куда сейчас можно ходить; null - любые пустые
+    private boolean[][] allowedCells;
 
     // интерфейс для обработки нажатий по клеткам
     public interface CellClickListener {
@@ -21,21 +29,44 @@ public class GameBoardPanel extends JPanel {
 
     // Конструктор игрового поля
     public GameBoardPanel() {
-        // Установки разметки (менеджера расположений) в виде таблицы
-        setLayout(new GridLayout(3, 3, 5, 5));
         // Отступы
         setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        setBoardSize(3, 3);
+    }
+
+    public int getRows() {
+        return cells.length;
+    }
+
+    public int getCols() {
+        return cells[0].length;
+    }
+
+    // пересоздание клеток под другой размер поля
+    public void setBoardSize(int rows, int cols) {
+        if (cells != null && rows == getRows() && cols == getCols()) {
+            return;
+        }
+        removeAll();
+        // Установки разметки (менеджера расположений) в виде таблицы
+        int gap = Math.max(rows, cols) > 3 ? 1 : 5;
+        setLayout(new GridLayout(rows, cols, gap, gap));
         // кнопки-клетки
-        cells = new JButton[3][3];
+        cells = new JButton[rows][cols];
         initializeBoard();
+        revalidate();
+        repaint();
     }
 
     // метод для создания и инициализации клеток
     private void initializeBoard() {
-        for (int row = 0; row < 3; row++) {
-            for (int col = 0; col < 3; col++) {
+        // на больших полях клетки и шрифт меньше
+        int cellSize = Math.min(100, BOARD_PIXELS / Math.max(getRows(), getCols()));
+        for (int row = 0; row < getRows(); row++) {
+            for (int col = 0; col < getCols(); col++) {
                 // создание кнопки-клетки
-                JButton cell = createCell();
+                JButton cell = createCell(cellSize);
+                cell.setBorder(cellBorder(row, col));
 
                 // координаты, которые позже передаются в обработчик
                 final int r = row;
@@ -62,18 +93,19 @@ public class GameBoardPanel extends JPanel {
     }
 
     // метод для создания и настройки отдельной кнопки-клетки
-    private JButton createCell() {
+    private JButton createCell(int cellSize) {
         // создание клетки
         JButton cell = new JButton();
         // настройка размеров кнопки
-        cell.setPreferredSize(new Dimension(100, 100));
+        cell.setPreferredSize(new Dimension(cellSize, cellSize));
+        // без внутренних отступов символ помещается в маленькую клетку
+        cell.setMargin(new Insets(0, 0, 0, 0));
         // настройка шрифта для более корректного отображения X\0
-        cell.setFont(new Font("Arial", Font.BOLD, 40));
+        cell.setFont(new Font("Arial", Font.BOLD, cellSize * 2 / 5));
         // отключаем прорисовку отдельного контура для кнопки
         cell.setFocusPainted(false);
         // настройка цвета для кнопки и ее рамки
         cell.setBackground(Color.WHITE);
-        cell.setBorder(BorderFactory.createLineBorder(Color.DARK_GRAY, 2));
 
         // Эффект при наведении мыши на кнопку
         cell.addMouseListener(new MouseAdapter() {
@@ -103,7 +135,7 @@ public class GameBoardPanel extends JPanel {
 
     // метод для установки символов X\O
     public void setCell(int row, int col, String symbol) {
-        if (row < 0 || row >= 3 || col < 0 || col >= 3) return;
+        if (row < 0 || row >= getRows() || col < 0 || col >= getCols()) return;
 
         JButton cell = cells[row][col];
         cell.setText(symbol);
@@ -121,7 +153,7 @@ public class GameBoardPanel extends JPanel {
     // метод для очистки отдельной клетки
     public void clearCell(int row, int col) {
         // проверка на валидность координат кнопок
-        if (row < 0 || row >= 3 || col < 0 || col >= 3) return;
+        if (row < 0 || row >= getRows() || col < 0 || col >= getCols()) return;
 
         JButton cell = cells[row][col];
         // Убираем текст (символ) с кнопки
@@ -131,12 +163,44 @@ public class GameBoardPanel extends JPanel {
         // Возвращение цвета
         cell.setForeground(Color.BLACK);
         cell.setBackground(Color.WHITE);
+        // Снятие подсветки выигрышной линии
+        cell.setBorder(cellBorder(row, col));
+    }
+
+    // рамка клетки: на границах блоков толще, чтобы были видны малые поля
+    private Border cellBorder(int row, int col) {
+        if (blockSize <= 0) {
+            return BorderFactory.createLineBorder(Color.DARK_GRAY, 2);
+        }
+        int top = row % blockSize == 0 ? 3 : 1;
+        int left = col % blockSize == 0 ? 3 : 1;
+        int bottom = row == getRows() - 1 ? 3 : 0;
+        int right = col == getCols() - 1 ? 3 : 0;
+        return BorderFactory.createMatteBorder(top, left, bottom, right, Color.DARK_GRAY);
+    }
+
+    // выделение блоков blockSize x blockSize (0 - без блоков)
+    public void setBlockSize(int blockSize) {
+        if (this.blockSize == blockSize) {
+            return;
+        }
+        this.blockSize = blockSize;
+        for (int row = 0; row < getRows(); row++) {
+            for (int col = 0; col < getCols(); col++) {
+                cells[row][col].setBorder(cellBorder(row, col));
+            }
+        }
+    }
+
+    // клетки, которые enableBoard делает доступными (null - все пустые)
+    public void setAllowedCells(boolean[][] allowedCells) {
+        this.allowedCells = allowedCells;
     }
 
     // метод для очистки всех клеток
     public void clearBoard() {
-        for (int row = 0; row < 3; row++) {
-            for (int col = 0; col < 3; col++) {
+        for (int row = 0; row < getRows(); row++) {
+            for (int col = 0; col < getCols(); col++) {
                 clearCell(row, col);
             }
         }
@@ -144,8 +208,8 @@ public class GameBoardPanel extends JPanel {
 
     // метод, чтобы сделать все клетки недоступными
     public void disableBoard() {
-        for (int row = 0; row < 3; row++) {
-            for (int col = 0; col < 3; col++) {
+        for (int row = 0; row < getRows(); row++) {
+            for (int col = 0; col < getCols(); col++) {
                 cells[row][col].setEnabled(false);
             }
         }
@@ -153,11 +217,13 @@ public class GameBoardPanel extends JPanel {
 
     // метод, чтобы сделать пустые кнопки доступными
     public void enableBoard() {
-        for (int row = 0; row < 3; row++) {
-            for (int col = 0; col < 3; col++) {
+        for (int row = 0; row < getRows(); row++) {
+            for (int col = 0; col < getCols(); col++) {
                 JButton cell = cells[row][col];
-                // Включаем только пустые клетки
-                cell.setEnabled(cell.getText() == null || cell.getText().isEmpty());
+                // Включаем только пустые клетки, куда разрешен ход
+                boolean allowed = allowedCells == null ||
+                        (row < allowedCells.length && col < allowedCells[row].length && allowedCells[row][col]);
+                cell.setEnabled(allowed && (cell.getText() == null || cell.getText().isEmpty()));
             }
         }
     }
@@ -170,7 +236,7 @@ public class GameBoardPanel extends JPanel {
         for (int[] cell : winningCells) {
             int row = cell[0];
             int col = cell[1];
-            if (row >= 0 && row < 3 && col >= 0 && col < 3) {
+            if (row >= 0 && row < getRows() && col >= 0 && col < getCols()) {
                 // устанавливаем желтый цвет для кнопки
                 cells[row][col].setBackground(new Color(255, 255, 153));
                 // устанавливаем рыжий цвет для рамки
@@ -259,8 +259,10 @@ public class GameWindow extends JFrame {
 
     // Методы для обновления отображения игрового поля
     public void updateBoard(String[][] boardState) {
-        for (int row = 0; row < 3; row++) {
-            for (int col = 0; col < 3; col++) {
+        // размер поля определяет сервер
+        setBoardSize(boardState.length, boardState[0].length);
+        for (int row = 0; row < boardState.length; row++) {
+            for (int col = 0; col < boardState[row].length; col++) {
                 String symbol = boardState[row][col];
                 if (symbol != null && !symbol.isEmpty()) {
                     gameBoard.setCell(row, col, symbol); // установить символ
@@ -271,6 +273,24 @@ public class GameWindow extends JFrame {
         }
     }
 
+    // метод смены размера игрового поля
+    public void setBoardSize(int rows, int cols) {
+        if (gameBoard.getRows() == rows && gameBoard.getCols() == cols) {
+            return;
+        }
+        gameBoard.setBoardSize(rows, cols);
+        pack();
+    }
+
+    // выделение малых полей и клеток, куда можно ходить (ультимейт)
+    public void setBlockSize(int blockSize) {
+        gameBoard.setBlockSize(blockSize);
+    }
+
+    public void setAllowedCells(boolean[][] allowedCells) {
+        gameBoard.setAllowedCells(allowedCells);
+    }
+
     // метод установки статуса
     public void setStatus(String status) {
         SwingUtilities.invokeLater(new Runnable() {
@@ -0,0 +1,201 @@
+//Исполнитель ходов ИИ
+
+
+package server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Ходы ИИ считаются в отдельных потоках, а не в потоках соединений:
+// долгий поиск не задерживает ответы другим игрокам.
+// Два приоритета - две очереди со своими потоками: быстрые ходы не ждут,
+// пока освободятся потоки с долгими поисками. Очереди ограничены,
+// у каждой игры не больше одной задачи хода. Размышления на время
+// соперника идут в отдельном потоке с наименьшим приоритетом.
+public class AIExecutor {
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    public static final int PRIORITY_FAST = 0;     // таблица, перебор 3x3, случайный ход
+    public static final int PRIORITY_SEARCH = 1;   // поиск Монте-Карло на большом поле
+
+    private final ThreadPoolExecutor fast;
+    private final ThreadPoolExecutor search;
+    private final ThreadPoolExecutor ponder;
+    // задача каждой игры: в очереди или выполняется
+    private final ConcurrentHashMap<String, Job> jobs = new ConcurrentHashMap<>();
+
+    public AIExecutor() {
+        this(defaultSearchThreads(), DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public AIExecutor(int searchThreads, int capacity) {
+        this.fast = newExecutor("ai-move-fast-", 1, capacity, Thread.NORM_PRIORITY - 1);
+        this.search = newExecutor("ai-move-search-", searchThreads, capacity, Thread.NORM_PRIORITY - 1);
+        this.ponder = newExecutor("ai-ponder-", 1, capacity, Thread.MIN_PRIORITY);
+    }
+
+    // одновременных поисков не больше, чем ядер для ИИ
+    public static int defaultSearchThreads() {
+        return MctsEngine.maxThreads();
+    }
+
+    private static ThreadPoolExecutor newExecutor(String name, int threads, int capacity, int priority) {
+        AtomicInteger index = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(capacity), runnable -> {
+                    Thread thread = new Thread(runnable, name + index.getAndIncrement());
+                    thread.setDaemon(true);
+                    // потоки соединений важнее
+                    thread.setPriority(priority);
+                    return thread;
+                });
+    }
+
+    // Ставит ход ИИ игры в очередь. Если задача игры уже ждет в очереди, новая
+    // не нужна. Уже начатая задача может еще рассылать свой ход, а игрок -
+    // успеть ответить на него: тогда новая задача заменяет ее в jobs и
+    // выполняется следом за ней в том же потоке, так что две задачи одной
+    // игры никогда не идут одновременно. Возвращает false, если очередь переполнена.
+    public boolean submit(String gameId, int priority, Runnable task) {
+        Job job = new Job(gameId, priority == PRIORITY_FAST ? fast : search, task);
+        while (true) {
+            Job existing = jobs.putIfAbsent(gameId, job);
+            if (existing == null) {
+                break;
+            }
+            synchronized (existing) {
+                if (!existing.started) {
+                    if (!existing.cancelled) {
+                        return true;
+                    }
+                    // отмененная задача, ждущая предыдущую, снова нужна
+                    if (jobs.get(gameId) == existing) {
+                        existing.task = task;
+                        existing.cancelled = false;
+                        return true;
+                    }
+                    continue;
+                }
+                if (!existing.finished) {
+                    if (jobs.replace(gameId, existing, job)) {
+                        existing.successor = job;
+                        return true;
+                    }
+                    continue;
+                }
+            }
+            // задача уже закончилась и вот-вот уйдет из jobs
+            if (jobs.replace(gameId, existing, job)) {
+                break;
+            }
+        }
+        try {
+            job.executor.execute(job);
+            return true;
+        } catch (RejectedExecutionException e) {
+            jobs.remove(gameId, job);
+            return false;
+        }
+    }
+
+    // Размышление; при переполненной очереди просто не выполняется.
+    // Останавливается флагом в дереве игры, а не через исполнителя.
+    public void submitPonder(Runnable task) {
+        try {
+            ponder.execute(task);
+        } catch (RejectedExecutionException e) {
+            // размышление необязательно
+        }
+    }
+
+    public boolean isScheduled(String gameId) {
+        return jobs.containsKey(gameId);
+    }
+
+    // Отмена хода брошенной игры. Снимается только задача, которая еще не
+    // начата (в очереди или ждет предыдущую задачу игры): уже идущий поиск
+    // ограничен бюджетом и доводится до конца.
+    public void cancel(String gameId) {
+        Job job = jobs.get(gameId);
+        if (job == null) {
+            return;
+        }
+        synchronized (job) {
+            if (job.started) {
+                return;
+            }
+            job.cancelled = true;
+            // задача, ждущая предыдущую, остается в jobs: новая задача игры
+            // должна встать за еще идущую, а не рядом с ней
+            if (job.executor.remove(job)) {
+                jobs.remove(gameId, job);
+            }
+        }
+        Log.debug(() -> "Ход ИИ отменен: " + gameId);
+    }
+
+    public int getQueueSize() {
+        return fast.getQueue().size() + search.getQueue().size();
+    }
+
+    public void shutdown() {
+        fast.shutdownNow();
+        search.shutdownNow();
+        ponder.shutdownNow();
+    }
+
+    private class Job implements Runnable {
+        private final String gameId;
+        private final ThreadPoolExecutor executor;
+        // под блокировкой задачи: что делать, начата ли, отменена,
+        // закончилась ли и кто идет следом
+        private Runnable task;
+        private boolean started;
+        private boolean cancelled;
+        private boolean finished;
+        private Job successor;
+
+        Job(String gameId, ThreadPoolExecutor executor, Runnable task) {
+            this.gameId = gameId;
+            this.executor = executor;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            Job job = this;
+            while (job != null) {
+                job = job.runOnce();
+            }
+        }
+
+        // возвращает задачу, заменившую эту, пока она выполнялась
+        private Job runOnce() {
+            Runnable work;
+            synchronized (this) {
+                work = cancelled ? null : task;
+                started = true;
+            }
+            try {
+                if (work != null) {
+                    work.run();
+                }
+            } catch (RuntimeException e) {
+                Log.error("Ошибка хода ИИ в игре " + gameId + ": " + e.getMessage(), e);
+            }
+            Job next;
+            synchronized (this) {
+                finished = true;
+                next = successor;
+            }
+            if (next == null) {
+                jobs.remove(gameId, this);
+            }
+            return next;
+        }
+    }
+}
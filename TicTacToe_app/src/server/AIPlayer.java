@@ -1,29 +1,301 @@
 package server;
 
+import shared.GameState;
 import shared.Move;
-import java.util.ArrayList;
+import shared.Symmetry;
+import shared.UltimateBoard;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 public class AIPlayer {
+    // уровни сложности: EASY - случайный ход, HARD - перебор во время хода,
+    // PERFECT - готовый ход из таблицы идеальной игры; на полях с загруженной
+    // таблицей Tablebase HARD и PERFECT ходят по ней, на остальных больших
+    // полях - поиском Монте-Карло. В ультимейте HARD - перебор на малую
+    // глубину, PERFECT - перебор с углублением в пределах бюджета времени
+    public enum Difficulty { EASY, HARD, PERFECT }
+
+    // порядок перебора ходов: центр, углы, стороны - сильные ходы первыми,
+    // чтобы альфа-бета отсечение срабатывало раньше
+    private static final int[] MOVE_ORDER = {4, 0, 2, 6, 8, 1, 3, 5, 7};
+
+    // оценка победы; из нее вычитается число камней, чтобы ИИ выигрывал
+    // как можно быстрее и проигрывал как можно позже
+    private static final int WIN_SCORE = 16;
+
+    // Таблица транспозиций, общая для всех игр сервера. Позиция задается
+    // маской ходящего и маской соперника (18 бит), поэтому индекс и есть
+    // ключ без коллизий, а таблица ограничена 2^18 записями (1 МБ).
+    // Позиции хранятся в канонической форме: повернутые и отраженные
+    // позиции занимают одну запись, лучший ход хранится в той же форме.
+    // Запись: бит 0 - занята, биты 1-2 - тип оценки, биты 3-6 - лучший ход,
+    // биты 8 и выше - оценка со смещением.
+    private static final AtomicIntegerArray TABLE = new AtomicIntegerArray(1 << (2 * GameState.CELLS));
+    private static final int EXACT = 0;
+    private static final int LOWER = 1;
+    private static final int UPPER = 2;
+    private static final int SCORE_OFFSET = 64;
+
     private Random random = new Random();
+    private final MctsEngine mcts;
+    // таблицы решенных позиций небольших полей (4x4 и т.п.)
+    private volatile Tablebase[] tablebases = new Tablebase[0];
+    private final UltimateAI ultimateHard = new UltimateAI(UltimateAI.DEFAULT_TIME_MILLIS, 4);
+    private final UltimateAI ultimatePerfect = new UltimateAI();
 
-    public Move getRandomMove(String[][] board) {
-        ArrayList<Move> emptyCells = new ArrayList<>();
+    public AIPlayer() {
+        this(new MctsEngine());
+    }
 
-        // Найти все пустые клетки
-        for (int i = 0; i < 3; i++) {
-            for (int j = 0; j < 3; j++) {
-                if (board[i][j] == null || board[i][j].isEmpty()) {
-                    emptyCells.add(new Move(i, j));
-                }
+    public AIPlayer(MctsEngine mcts) {
+        this.mcts = mcts;
+    }
+
+    public MctsEngine getMcts() {
+        return mcts;
+    }
+
+    public void setTablebases(List<Tablebase> tables) {
+        tablebases = tables.toArray(new Tablebase[0]);
+    }
+
+    private Tablebase tablebaseFor(GameState state) {
+        for (Tablebase table : tablebases) {
+            if (table.matches(state)) {
+                return table;
+            }
+        }
+        return null;
+    }
+
+    // ход считается мгновенно: таблица, случайный ход или короткий перебор ультимейта
+    public boolean isInstant(GameState state, Difficulty difficulty) {
+        return state.isClassic() || state.isUltimate() || difficulty == Difficulty.EASY ||
+                tablebaseFor(state) != null;
+    }
+
+    public Move getMove(GameState state, Difficulty difficulty) {
+        return getMove(state, difficulty, null);
+    }
+
+    // tree - дерево поиска игры из прошлых ходов (null - искать с нуля)
+    public Move getMove(GameState state, Difficulty difficulty, MctsEngine.Tree tree) {
+        if (state.isUltimate()) {
+            switch (difficulty) {
+                case HARD:
+                    return ultimateHard.search(state);
+                case PERFECT:
+                    return ultimatePerfect.search(state);
+                default:
+                    return getRandomMove(state);
+            }
+        }
+        // перебор и таблица есть только для поля 3x3
+        if (!state.isClassic()) {
+            if (difficulty == Difficulty.EASY) {
+                return getRandomMove(state);
+            }
+            Tablebase table = tablebaseFor(state);
+            if (table != null) {
+                return getTablebaseMove(table, state);
+            }
+            return tree == null ? mcts.search(state) : mcts.search(state, tree);
+        }
+        switch (difficulty) {
+            case HARD:
+                return getBestMove(state);
+            case PERFECT:
+                return getPerfectMove(state);
+            default:
+                return getRandomMove(state);
+        }
+    }
+
+    // Размышление на время соперника после хода ИИ. Имеет смысл только для
+    // поиска Монте-Карло: на поле 3x3 ход ИИ и так мгновенный.
+    public boolean canPonder(GameState state, Difficulty difficulty) {
+        return !isInstant(state, difficulty) && !state.isGameOver();
+    }
+
+    // порция размышления; true - стоит продолжить (см. MctsEngine.ponder)
+    public boolean ponder(MctsEngine.Tree tree, int generation) {
+        return mcts.ponder(tree, generation);
+    }
+
+    public void releaseTree(MctsEngine.Tree tree) {
+        mcts.release(tree);
+    }
+
+    // ход из PerfectPlayTable - одно обращение к массиву
+    public Move getPerfectMove(GameState state) {
+        String symbol = String.valueOf(state.getCurrentPlayer());
+        int me = state.getMask(symbol);
+        int opponent = state.getMask("X".equals(symbol) ? "O" : "X");
+
+        int cell = PerfectPlayTable.bestCell(me, opponent);
+        if (cell == PerfectPlayTable.NO_MOVE) {
+            return null;
+        }
+        return new Move(cell / GameState.SIZE, cell % GameState.SIZE);
+    }
+
+    // ход из таблицы решенных позиций - чтение отображенного в память файла
+    public Move getTablebaseMove(Tablebase table, GameState state) {
+        int cell = table.bestCell((int) state.getXBits(), (int) state.getOBits());
+        if (cell < 0) {
+            return null;
+        }
+        return new Move(cell / state.getCols(), cell % state.getCols());
+    }
+
+    public Move getRandomMove(GameState state) {
+        if (state.isUltimate()) {
+            UltimateBoard board = UltimateBoard.from(state);
+            int[] moves = new int[UltimateBoard.MOVES];
+            int count = board.isFinished() ? 0 : board.legalMoves(moves);
+            if (count == 0) {
+                return null;
             }
+            int move = moves[random.nextInt(count)];
+            return new Move(UltimateBoard.row(move), UltimateBoard.col(move));
         }
 
+        // Число пустых клеток
+        int count = state.getRows() * state.getCols() - state.getStoneCount();
+
         // Выбрать случайную
-        if (emptyCells.isEmpty()) {
+        if (count <= 0) {
+            return null;
+        }
+
+        // пропускаем случайное число свободных клеток и берем следующую
+        int skip = random.nextInt(count);
+        for (int row = 0; row < state.getRows(); row++) {
+            for (int col = 0; col < state.getCols(); col++) {
+                if (state.isEmpty(row, col) && skip-- == 0) {
+                    return new Move(row, col);
+                }
+            }
+        }
+        return null;
+    }
+
+    // Лучший ход для игрока, чья очередь ходить (negamax с альфа-бета отсечением).
+    // Полный перебор 3x3 ограничен числом достижимых позиций (меньше 6000),
+    // а с таблицей повторные позиции берутся из кэша.
+    public Move getBestMove(GameState state) {
+        if (state.getEmptyMask() == 0) {
             return null;
         }
 
-        return emptyCells.get(random.nextInt(emptyCells.size()));
+        long start = System.nanoTime();
+        String symbol = String.valueOf(state.getCurrentPlayer());
+        int me = state.getMask(symbol);
+        int opponent = state.getMask("X".equals(symbol) ? "O" : "X");
+
+        // корневые ходы перебираются здесь, чтобы лучший ход не зависел
+        // от записей таблицы, которые параллельно обновляют другие игры
+        SearchStats stats = new SearchStats();
+        int empty = state.getEmptyMask();
+        int alpha = -WIN_SCORE;
+        int cell = -1;
+        for (int candidate : MOVE_ORDER) {
+            if ((empty & (1 << candidate)) == 0) {
+                continue;
+            }
+            int score = -negamax(opponent, me | (1 << candidate), -WIN_SCORE, -alpha, stats);
+            if (cell < 0 || score > alpha) {
+                alpha = score;
+                cell = candidate;
+            }
+        }
+        int score = alpha;
+
+        Move move = new Move(cell / GameState.SIZE, cell % GameState.SIZE);
+        if (Log.isDebugEnabled()) {
+            Log.debug("ИИ: ход [" + move.getRow() + "," + move.getCol() + "], оценка " + score +
+                    ", узлов " + stats.nodes + ", время " + (System.nanoTime() - start) / 1000 + " мкс");
+        }
+        return move;
+    }
+
+    // оценка позиции для ходящего игрока (me); соперник только что походил
+    private static int negamax(int me, int opponent, int alpha, int beta, SearchStats stats) {
+        stats.nodes++;
+
+        if (GameState.findWinLine(opponent) != 0) {
+            return -(WIN_SCORE - Integer.bitCount(me | opponent));
+        }
+        int empty = ~(me | opponent) & GameState.FULL_MASK;
+        if (empty == 0) {
+            return 0;
+        }
+
+        int transform = canonicalTransform(me, opponent);
+        int key = key(Symmetry.mask3x3(transform, me), Symmetry.mask3x3(transform, opponent));
+        int entry = TABLE.get(key);
+        int bestCell = -1;
+        if (entry != 0) {
+            int stored = (entry >> 8) - SCORE_OFFSET;
+            int type = (entry >>> 1) & 3;
+            if (type == EXACT ||
+                    (type == LOWER && stored >= beta) ||
+                    (type == UPPER && stored <= alpha)) {
+                return stored;
+            }
+            // ход из таблицы проверяем первым
+            bestCell = Symmetry.cell3x3(Symmetry.inverse(transform), (entry >>> 3) & 0xF);
+        }
+
+        int originalAlpha = alpha;
+        int bestScore = -WIN_SCORE;
+        int bestMove = -1;
+        for (int i = -1; i < MOVE_ORDER.length; i++) {
+            int cell = i < 0 ? bestCell : MOVE_ORDER[i];
+            if (cell < 0 || (i >= 0 && cell == bestCell) || (empty & (1 << cell)) == 0) {
+                continue;
+            }
+
+            int score = -negamax(opponent, me | (1 << cell), -beta, -alpha, stats);
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = cell;
+            }
+            if (score > alpha) {
+                alpha = score;
+            }
+            if (alpha >= beta) {
+                break;
+            }
+        }
+
+        int type = bestScore <= originalAlpha ? UPPER : bestScore >= beta ? LOWER : EXACT;
+        int storedMove = Symmetry.cell3x3(transform, bestMove);
+        TABLE.set(key, ((bestScore + SCORE_OFFSET) << 8) | (storedMove << 3) | (type << 1) | 1);
+        return bestScore;
+    }
+
+    private static int key(int me, int opponent) {
+        return me | (opponent << GameState.CELLS);
+    }
+
+    // симметрия с наименьшим ключом позиции
+    private static int canonicalTransform(int me, int opponent) {
+        int best = Symmetry.IDENTITY;
+        int bestKey = key(me, opponent);
+        for (int t = 1; t < Symmetry.COUNT; t++) {
+            int candidate = key(Symmetry.mask3x3(t, me), Symmetry.mask3x3(t, opponent));
+            if (candidate < bestKey) {
+                bestKey = candidate;
+                best = t;
+            }
+        }
+        return best;
+    }
+
+    // счетчики одного поиска
+    private static class SearchStats {
+        long nodes;
     }
-}
\ No newline at end of file
+}
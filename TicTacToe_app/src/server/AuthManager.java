@@ -50,7 +50,7 @@ public class AuthManager {
                 users = (HashMap<String, User>) ois.readObject();
             }
         } catch (IOException | ClassNotFoundException e) {
-            System.out.println("Ошибка загрузки пользователей: " + e.getMessage());
+            Log.warn("Ошибка загрузки пользователей: " + e.getMessage());
             users = new HashMap<>();
         }
     }
@@ -64,7 +64,7 @@ public class AuthManager {
                 oos.writeObject(users);
             }
         } catch (IOException e) {
-            System.out.println("Ошибка сохранения пользователей: " + e.getMessage());
+            Log.error("Ошибка сохранения пользователей: " + e.getMessage());
         }
     }
 
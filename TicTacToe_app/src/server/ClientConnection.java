@@ -0,0 +1,15 @@
+//Канал отправки сообщений клиенту
+
+
+package server;
+
+import shared.GameMessage;
+
+// Абстракция над транспортом: ConnectionHandler отправляет ответы через нее
+// и не знает, работает ли он в событийном цикле NIO или в отдельном потоке.
+// Реализации должны допускать вызов send из любого потока.
+public interface ClientConnection {
+    void send(GameMessage message);
+
+    void close();
+}
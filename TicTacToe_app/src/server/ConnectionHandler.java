@@ -3,71 +3,176 @@
 
 package server;
 
+import shared.BinaryCodec;
+import shared.FrameDecoder;
 import shared.GameMessage;
+import shared.MessageCodec;
 import shared.Move;
 import shared.GameState;
 import java.io.*;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import server.storage.*;
 
 public class ConnectionHandler implements Runnable {
     private Socket clientSocket;
     private GameManager gameManager;
     private AuthManager authManager;
+    private ClientConnection connection;
 
+    // игра, события которой получает это соединение
+    private String subscribedGameId;
+
+    // блокирующий режим: соединение обслуживается отдельным потоком через run()
     public ConnectionHandler(Socket clientSocket, GameManager gameManager, AuthManager authManager) {
         this.clientSocket = clientSocket;
         this.gameManager = gameManager;
         this.authManager = authManager;
     }
 
+    // режим событийного цикла: сообщения приходят через handleMessage()
+    public ConnectionHandler(ClientConnection connection, GameManager gameManager, AuthManager authManager) {
+        this.connection = connection;
+        this.gameManager = gameManager;
+        this.authManager = authManager;
+    }
+
     @Override
     public void run() {
-        try (ObjectInputStream in = new ObjectInputStream(clientSocket.getInputStream());
-             ObjectOutputStream out = new ObjectOutputStream(clientSocket.getOutputStream())) {
+        try {
+            InputStream in = new BufferedInputStream(clientSocket.getInputStream());
+            serve(in, clientSocket.getOutputStream(), FrameDecoder.isObjectStream(in));
+        } catch (IOException e) {
+            Log.warn("Ошибка соединения: " + e.getMessage());
+            onDisconnect();
+        }
+    }
 
-            while (true) {
-                GameMessage message = (GameMessage) in.readObject();
-
-                switch (message.getType()) {
-                    case "LOGIN":
-                        handleLogin(message, out);
-                        break;
-                    case "REGISTER":
-                        handleRegister(message, out);
-                        break;
-                    case "MOVE":
-                        handleMove(message, out);
-                        break;
-                    case "NEW_GAME":
-                        handleNewGame(message, out);
-                        break;
-                    case "GET_GAME_STATE":
-                        handleGetGameState(message, out);
-                        break;
-                    case "SAVE_GAME":
-                        handleSaveGame(message, out);
-                        break;
-                    case "LOAD_GAME":
-                        handleLoadGame(message, out);
-                        break;
-                    case "GET_SAVED_GAMES":
-                        handleGetSavedGames(message, out);
-                        break;
-                    default:
-                        System.out.println("Неизвестный тип сообщения: " + message.getType());
+    // Старый клиент, переданный событийным циклом (см. NioConnection):
+    // сокет уже в блокирующем режиме, prefix - байты, прочитанные циклом.
+    void runObjectStream(Socket socket, byte[] prefix) {
+        this.clientSocket = socket;
+        try {
+            InputStream in = new SequenceInputStream(new ByteArrayInputStream(prefix), socket.getInputStream());
+            serve(in, socket.getOutputStream(), true);
+        } catch (IOException e) {
+            Log.warn("Ошибка соединения: " + e.getMessage());
+            onDisconnect();
+        }
+    }
+
+    // Чтение сообщений до закрытия соединения. objectStream - клиент без
+    // кадров: сериализация Java прямо в потоке сокета, как до перехода на кадры.
+    private void serve(InputStream input, OutputStream output, boolean objectStream) {
+        try (InputStream in = input; OutputStream out = output) {
+            if (objectStream) {
+                Log.info("Клиент без кадров - сериализация Java в потоке сокета");
+                ObjectOutputStream objectOut = new ObjectOutputStream(new BufferedOutputStream(out));
+                objectOut.flush();
+                connection = new ObjectStreamConnection(objectOut);
+
+                ObjectInputStream objectIn = new ObjectInputStream(in);
+                while (true) {
+                    Object obj = objectIn.readObject();
+                    if (!(obj instanceof GameMessage)) {
+                        throw new StreamCorruptedException("Получен неизвестный объект: " + obj.getClass());
+                    }
+                    handleMessage((GameMessage) obj);
                 }
             }
+
+            DataInputStream dataIn = new DataInputStream(in);
+            MessageCodec codec = new ServerCodec();
+            connection = new StreamConnection(new DataOutputStream(new BufferedOutputStream(out)), codec);
+
+            while (true) {
+                GameMessage message = codec.decode(FrameDecoder.readFrame(dataIn));
+                handleMessage(message);
+            }
         } catch (EOFException e) {
-            System.out.println("Клиент отключился корректно");
+            Log.info("Клиент отключился корректно");
         } catch (IOException | ClassNotFoundException e) {
-            System.out.println("Ошибка соединения: " + e.getMessage());
+            Log.warn("Ошибка соединения: " + e.getMessage());
+        } finally {
+            onDisconnect();
+        }
+    }
+
+    // Вызывается транспортом при закрытии соединения. Подписка меняется и из
+    // потоков ввода-вывода (после загрузки игры), поэтому под блокировкой.
+    public synchronized void onDisconnect() {
+        if (subscribedGameId != null) {
+            gameManager.unsubscribe(subscribedGameId, connection);
+            subscribedGameId = null;
+        }
+    }
+
+    // соединение следит за одной игрой за раз
+    private synchronized void subscribeTo(String gameId) {
+        if (gameId == null || gameId.equals(subscribedGameId)) {
+            return;
+        }
+        onDisconnect();
+        gameManager.subscribe(gameId, connection);
+        subscribedGameId = gameId;
+    }
+
+    // разбор одного сообщения клиента, общий для всех транспортов
+    public void handleMessage(GameMessage message) {
+        // ответы помечаются номером запроса, чтобы клиент мог держать
+        // несколько запросов в полете на одном соединении
+        ClientConnection out = message.getRequestId() == 0
+                ? connection
+                : new ReplyConnection(connection, message.getRequestId());
+
+        switch (message.getType()) {
+            case BinaryCodec.HELLO:
+                handleHello(message, out);
+                break;
+            case "LOGIN":
+                handleLogin(message, out);
+                break;
+            case "REGISTER":
+                handleRegister(message, out);
+                break;
+            case "MOVE":
+                handleMove(message, out);
+                break;
+            case "NEW_GAME":
+                handleNewGame(message, out);
+                break;
+            case "GET_GAME_STATE":
+                handleGetGameState(message, out);
+                break;
+            case "SAVE_GAME":
+                handleSaveGame(message, out);
+                break;
+            case "LOAD_GAME":
+                handleLoadGame(message, out);
+                break;
+            case "GET_SAVED_GAMES":
+                handleGetSavedGames(message, out);
+                break;
+            default:
+                Log.warn("Неизвестный тип сообщения: " + message.getType());
         }
     }
 
-    private void handleLogin(GameMessage message, ObjectOutputStream out) throws IOException {
+    // согласование версии бинарного протокола
+    private void handleHello(GameMessage message, ClientConnection out) {
+        int clientVersion = (Integer) message.getData("version");
+        int version = BinaryCodec.negotiate(clientVersion);
+        Log.info(() -> "Бинарный протокол, версия клиента " + clientVersion + ", выбрана " + version);
+
+        GameMessage response = new GameMessage(BinaryCodec.HELLO);
+        response.addData("version", version);
+        out.send(response);
+    }
+
+    private void handleLogin(GameMessage message, ClientConnection out) {
         String username = (String) message.getData("username");
         String password = (String) message.getData("password");
 
@@ -79,11 +184,10 @@ public class ConnectionHandler implements Runnable {
             response.addData("username", username);
         }
 
-        out.writeObject(response);
-        out.flush();
+        out.send(response);
     }
 
-    private void handleRegister(GameMessage message, ObjectOutputStream out) throws IOException {
+    private void handleRegister(GameMessage message, ClientConnection out) {
         String username = (String) message.getData("username");
         String password = (String) message.getData("password");
 
@@ -93,13 +197,10 @@ public class ConnectionHandler implements Runnable {
         response.addData("success", success);
         response.addData("message", success ? "Регистрация успешна" : "Пользователь уже существует");
 
-        out.writeObject(response);
-        out.flush();
+        out.send(response);
     }
 
-    private void handleMove(GameMessage message, ObjectOutputStream out) throws IOException {
-        System.out.println("\n=== СЕРВЕР: Получен MOVE ===");
-
+    private void handleMove(GameMessage message, ClientConnection out) {
         String gameId = (String) message.getData("gameId");
         String player = (String) message.getData("player");
         Object moveObj = message.getData("move");
@@ -107,15 +208,25 @@ public class ConnectionHandler implements Runnable {
         if (moveObj instanceof Move) {
             Move move = (Move) moveObj;
 
-            try {
-                GameState gameState = gameManager.processMove(gameId, move, player);
+            subscribeTo(gameId);
+
+            // ход выполняется в очереди игры, ответ уходит по его завершении
+            gameManager.processMove(gameId, move, player).whenComplete((gameState, error) -> {
+                if (error != null) {
+                    Log.error("Ошибка обработки хода в игре " + gameId + ": " + error.getMessage(), error);
+
+                    GameMessage response = new GameMessage("ERROR");
+                    response.addData("message", error.getMessage());
+                    out.send(response);
+                    return;
+                }
 
                 // Отправляем доску как List<String> для надежности
                 List<String> boardAsList = new ArrayList<>();
                 String[][] board = gameState.getBoard();
 
-                for (int i = 0; i < 3; i++) {
-                    for (int j = 0; j < 3; j++) {
+                for (int i = 0; i < board.length; i++) {
+                    for (int j = 0; j < board[i].length; j++) {
                         String cell = board[i][j];
                         boardAsList.add(cell == null ? "" : cell);
                     }
@@ -123,148 +234,256 @@ public class ConnectionHandler implements Runnable {
 
                 GameMessage response = new GameMessage("MOVE_RESPONSE");
                 response.addData("success", true);
+                response.addData("gameId", gameId);
                 response.addData("board", boardAsList);  // Отправляем как список
                 response.addData("currentPlayer", gameState.getCurrentPlayer());
                 response.addData("gameOver", gameState.isGameOver());
                 response.addData("winner", gameState.getWinner());
+                // полное состояние, в том числе выигрышная линия для подсветки
+                response.addData("gameState", gameState);
 
-                out.writeObject(response);
-                out.flush();
-
-            } catch (Exception e) {
-                System.err.println("СЕРВЕР: Ошибка обработки хода: " + e.getMessage());
-                e.printStackTrace();
-
-                GameMessage response = new GameMessage("ERROR");
-                response.addData("message", e.getMessage());
-                out.writeObject(response);
-                out.flush();
-            }
+                out.send(response);
+            });
         }
     }
 
-    private void handleNewGame(GameMessage message, ObjectOutputStream out) throws IOException {
+    private void handleNewGame(GameMessage message, ClientConnection out) {
         String player = (String) message.getData("player");
         boolean vsAI = (Boolean) message.getData("vsAI");
 
+        // размер поля клиент может не присылать - тогда классическое 3x3
+        int rows = intData(message, "rows", GameState.SIZE);
+        int cols = intData(message, "cols", GameState.SIZE);
+        int winLength = intData(message, "winLength", GameState.SIZE);
+        if (!GameState.isValidSize(rows, cols, winLength)) {
+            GameMessage response = new GameMessage("ERROR");
+            response.addData("message", "Недопустимый размер поля: " + rows + "x" + cols + ", " + winLength + " в ряд");
+            out.send(response);
+            return;
+        }
+
+        // ультимейт всегда на поле 9x9, размеры из сообщения не нужны
+        GameState board = Boolean.TRUE.equals(message.getData("ultimate")) ?
+                GameState.ultimate() : new GameState(rows, cols, winLength);
+
         GameManager.GameSession session;
         if (vsAI) {
-            session = gameManager.createGameWithAI(player);
+            session = gameManager.createGameWithAI(player, parseDifficulty(message.getData("difficulty")), board);
         } else {
-            session = gameManager.createNewGame(player, "Waiting for opponent...");
+            session = gameManager.createNewGame(player, GameManager.WAITING_PLAYER, board);
         }
 
+        subscribeTo(session.getGameId());
+
         GameMessage response = new GameMessage("NEW_GAME_RESPONSE");
         response.addData("gameId", session.getGameId());
-        response.addData("gameState", session.getGameState());
+        response.addData("gameState", session.getGameState().copy());
         response.addData("player2", session.getPlayer2());
 
-        out.writeObject(response);
-        out.flush();
+        out.send(response);
+    }
+
+    private static int intData(GameMessage message, String key, int defaultValue) {
+        Object value = message.getData(key);
+        return value instanceof Integer ? (Integer) value : defaultValue;
+    }
+
+    // старые клиенты уровень не присылают - для них остается легкий ИИ
+    private AIPlayer.Difficulty parseDifficulty(Object value) {
+        if (value instanceof String) {
+            try {
+                return AIPlayer.Difficulty.valueOf((String) value);
+            } catch (IllegalArgumentException e) {
+                Log.warn("Неизвестный уровень ИИ: " + value);
+            }
+        }
+        return AIPlayer.Difficulty.EASY;
     }
 
-    private void handleGetGameState(GameMessage message, ObjectOutputStream out) throws IOException {
+    private void handleGetGameState(GameMessage message, ClientConnection out) {
         String gameId = (String) message.getData("gameId");
 
-        GameManager.GameSession session = gameManager.getGameSession(gameId);
-        if (session != null) {
-            GameMessage response = new GameMessage("GAME_STATE_RESPONSE");
-            response.addData("gameState", session.getGameState());
-            response.addData("gameOver", session.getGameState().isGameOver());
-            response.addData("winner", session.getGameState().getWinner());
+        subscribeTo(gameId);
+        gameManager.getGameState(gameId).whenComplete((state, error) -> {
+            if (error == null) {
+                GameMessage response = new GameMessage("GAME_STATE_RESPONSE");
+                response.addData("gameState", state);
+                response.addData("gameOver", state.isGameOver());
+                response.addData("winner", state.getWinner());
 
-            out.writeObject(response);
-            out.flush();
-        } else {
-            GameMessage response = new GameMessage("ERROR");
-            response.addData("message", "Game not found");
+                out.send(response);
+            } else {
+                GameMessage response = new GameMessage("ERROR");
+                response.addData("message", "Game not found");
 
-            out.writeObject(response);
-            out.flush();
-        }
+                out.send(response);
+            }
+        });
     }
 
     // Добавьте новые методы:
 
-    private void handleSaveGame(GameMessage message, ObjectOutputStream out) throws IOException {
+    private void handleSaveGame(GameMessage message, ClientConnection out) {
         String gameId = (String) message.getData("gameId");
         String player = (String) message.getData("player");
 
-        try {
-            GameManager.GameSession session = gameManager.getGameSession(gameId);
-
-            if (session != null) {
-                // Сохраняем игру через GameStorage
-                GameStorage storage = new GameStorage();
-                storage.saveGame(session, player);
-
+        // копия снимается в очереди игры, чтобы в файл не попал ход наполовину;
+        // запись идет в потоке ввода-вывода и не держит другие игры пула
+        CompletableFuture<byte[]> snapshot = gameManager.withGame(gameId,
+                session -> GameStorage.snapshot(session, player));
+        snapshot.thenCompose(data -> gameManager.runStorage(() -> {
+            new GameStorage().saveSnapshot(gameId, data);
+            return gameId;
+        })).whenComplete((savedId, failure) -> {
+            // после thenCompose ошибка приходит обернутой
+            Throwable error = failure instanceof CompletionException ? failure.getCause() : failure;
+            if (error == null) {
                 GameMessage response = new GameMessage("SAVE_GAME_RESPONSE");
                 response.addData("success", true);
-                response.addData("gameId", gameId);
+                response.addData("gameId", savedId);
 
-                out.writeObject(response);
+                out.send(response);
             } else {
-                throw new Exception("Игра не найдена");
-            }
-        } catch (Exception e) {
-            GameMessage response = new GameMessage("SAVE_GAME_RESPONSE");
-            response.addData("success", false);
-            response.addData("message", e.getMessage());
+                GameMessage response = new GameMessage("SAVE_GAME_RESPONSE");
+                response.addData("success", false);
+                response.addData("message", error instanceof IllegalArgumentException ?
+                        "Игра не найдена" : error.getMessage());
 
-            out.writeObject(response);
-        }
-        out.flush();
+                out.send(response);
+            }
+        });
     }
 
-    private void handleLoadGame(GameMessage message, ObjectOutputStream out) throws IOException {
+    private void handleLoadGame(GameMessage message, ClientConnection out) {
         String gameId = (String) message.getData("gameId");
         String player = (String) message.getData("player");
 
-        try {
-            GameStorage storage = new GameStorage();
-            GameManager.GameSession session = storage.loadGame(gameId, player);
+        // файл читается в потоке ввода-вывода, поток соединений не ждет диск
+        gameManager.runStorage(() -> new GameStorage().loadGame(gameId, player)).whenComplete((session, error) -> {
+            if (error != null || session == null) {
+                GameMessage response = new GameMessage("LOAD_GAME_RESPONSE");
+                response.addData("success", false);
+                response.addData("message", error != null ? error.getMessage() : "Сохраненная игра не найдена");
+
+                out.send(response);
+                return;
+            }
 
-            if (session != null) {
-                // Добавляем сессию обратно в активные игры
-                gameManager.getActiveGames().put(gameId, session);
+            subscribeTo(gameId);
 
+            // Добавляем сессию обратно в активные игры (через очередь игры)
+            gameManager.restoreGame(session).thenAccept(state -> {
                 GameMessage response = new GameMessage("LOAD_GAME_RESPONSE");
                 response.addData("success", true);
                 response.addData("gameId", gameId);
-                response.addData("gameState", session.getGameState());
+                response.addData("gameState", state);
                 response.addData("player2", session.getPlayer2());
 
-                out.writeObject(response);
+                out.send(response);
+            });
+        });
+    }
+
+    private void handleGetSavedGames(GameMessage message, ClientConnection out) {
+        String player = (String) message.getData("player");
+
+        // список проверяет каждый файл чтением - тоже в потоке ввода-вывода
+        gameManager.runStorage(() -> new GameStorage().getUserSavedGames(player)).whenComplete((gameIds, error) -> {
+            if (error == null) {
+                GameMessage response = new GameMessage("GET_SAVED_GAMES_RESPONSE");
+                response.addData("gameIds", gameIds);
+
+                out.send(response);
             } else {
-                throw new Exception("Сохраненная игра не найдена");
+                GameMessage response = new GameMessage("ERROR");
+                response.addData("message", "Ошибка получения списка игр: " + error.getMessage());
+
+                out.send(response);
             }
-        } catch (Exception e) {
-            GameMessage response = new GameMessage("LOAD_GAME_RESPONSE");
-            response.addData("success", false);
-            response.addData("message", e.getMessage());
+        });
+    }
+
+    // ответ на конкретный запрос клиента
+    private static class ReplyConnection implements ClientConnection {
+        private final ClientConnection connection;
+        private final int requestId;
 
-            out.writeObject(response);
+        ReplyConnection(ClientConnection connection, int requestId) {
+            this.connection = connection;
+            this.requestId = requestId;
+        }
+
+        @Override
+        public void send(GameMessage message) {
+            message.setRequestId(requestId);
+            connection.send(message);
+        }
+
+        @Override
+        public void close() {
+            connection.close();
         }
-        out.flush();
     }
 
-    private void handleGetSavedGames(GameMessage message, ObjectOutputStream out) throws IOException {
-        String player = (String) message.getData("player");
+    // отправка объектов старому клиенту без кадров
+    private static class ObjectStreamConnection implements ClientConnection {
+        private final ObjectOutputStream out;
 
-        try {
-            GameStorage storage = new GameStorage();
-            List<String> gameIds = storage.getUserSavedGames(player);
+        ObjectStreamConnection(ObjectOutputStream out) {
+            this.out = out;
+        }
 
-            GameMessage response = new GameMessage("GET_SAVED_GAMES_RESPONSE");
-            response.addData("gameIds", gameIds);
+        @Override
+        public synchronized void send(GameMessage message) {
+            try {
+                out.writeObject(message);
+                // таблица ссылок потока не растет от сообщения к сообщению
+                out.reset();
+                out.flush();
+            } catch (IOException e) {
+                Log.warn("Ошибка отправки: " + e.getMessage());
+                close();
+            }
+        }
 
-            out.writeObject(response);
-        } catch (Exception e) {
-            GameMessage response = new GameMessage("ERROR");
-            response.addData("message", "Ошибка получения списка игр: " + e.getMessage());
+        @Override
+        public void close() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // ошибка игнорируется при закрытии
+            }
+        }
+    }
+
+    // отправка кадров в блокирующий поток сокета
+    private static class StreamConnection implements ClientConnection {
+        private final DataOutputStream out;
+        private final MessageCodec codec;
 
-            out.writeObject(response);
+        StreamConnection(DataOutputStream out, MessageCodec codec) {
+            this.out = out;
+            this.codec = codec;
+        }
+
+        @Override
+        public synchronized void send(GameMessage message) {
+            try {
+                out.write(codec.encode(message));
+                out.flush();
+            } catch (IOException e) {
+                Log.warn("Ошибка отправки: " + e.getMessage());
+                close();
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // ошибка игнорируется при закрытии
+            }
         }
-        out.flush();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,151 @@
+//Событийный цикл NIO
+
+
+package server;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Один поток + один Selector обслуживают сколько угодно соединений:
+// пока игрок думает, его соединение не занимает поток.
+// Регистрация новых каналов и запросы на отправку из чужих потоков
+// складываются в очереди и подхватываются после wakeup().
+public class EventLoop implements Runnable {
+    private final String name;
+    private final Selector selector;
+    private final GameManager gameManager;
+    private final AuthManager authManager;
+
+    private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+    private final Queue<NioConnection> pendingFlushes = new ConcurrentLinkedQueue<>();
+    private final Queue<Runnable> pendingHandOffs = new ConcurrentLinkedQueue<>();
+
+    private volatile Thread thread;
+    private volatile boolean running;
+
+    public EventLoop(String name, GameManager gameManager, AuthManager authManager) throws IOException {
+        this.name = name;
+        this.selector = Selector.open();
+        this.gameManager = gameManager;
+        this.authManager = authManager;
+    }
+
+    public void start() {
+        running = true;
+        Thread loopThread = new Thread(this, name);
+        loopThread.setDaemon(true);
+        thread = loopThread;
+        loopThread.start();
+    }
+
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    // вызывается потоком, который принимает подключения
+    public void register(SocketChannel channel) {
+        pendingChannels.add(channel);
+        selector.wakeup();
+    }
+
+    // вызывается соединением, когда send() пришел не из потока цикла
+    void requestFlush(NioConnection connection) {
+        pendingFlushes.add(connection);
+        selector.wakeup();
+    }
+
+    // Снимает канал с цикла и выполняет task, когда канал уже не зарегистрирован
+    // в селекторе (после следующего select) и его можно перевести в блокирующий режим.
+    void handOff(SelectionKey key, Runnable task) {
+        key.cancel();
+        pendingHandOffs.add(task);
+        selector.wakeup();
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    @Override
+    public void run() {
+        Log.info("Событийный цикл " + name + " запущен");
+
+        while (running) {
+            try {
+                selector.select();
+                registerPendingChannels();
+                runPendingHandOffs();
+                flushPendingConnections();
+                processSelectedKeys();
+            } catch (IOException e) {
+                Log.error("Ошибка событийного цикла " + name + ": " + e.getMessage());
+            }
+        }
+
+        for (SelectionKey key : selector.keys()) {
+            ((NioConnection) key.attachment()).close();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // ошибка игнорируется при закрытии
+        }
+    }
+
+    private void registerPendingChannels() {
+        SocketChannel channel;
+        while ((channel = pendingChannels.poll()) != null) {
+            try {
+                NioConnection connection = new NioConnection(channel, this);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connection.attach(key, new ConnectionHandler(connection, gameManager, authManager));
+            } catch (IOException e) {
+                Log.warn("Не удалось зарегистрировать соединение: " + e.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // ошибка игнорируется при закрытии
+                }
+            }
+        }
+    }
+
+    private void runPendingHandOffs() {
+        Runnable task;
+        while ((task = pendingHandOffs.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private void flushPendingConnections() {
+        NioConnection connection;
+        while ((connection = pendingFlushes.poll()) != null) {
+            connection.flush();
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+
+            NioConnection connection = (NioConnection) key.attachment();
+            if (!key.isValid()) {
+                continue;
+            }
+            if (key.isReadable()) {
+                connection.onReadable();
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.flush();
+            }
+        }
+    }
+}
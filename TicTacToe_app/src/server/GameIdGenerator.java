@@ -0,0 +1,95 @@
+//Генератор ID игр
+
+
+package server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// 64-битные ID в духе Snowflake: 41 бит - миллисекунды от EPOCH (хватит
+// примерно на 69 лет), 10 бит - номер узла, 12 бит - счетчик в пределах
+// миллисекунды. Разные узлы не пересекаются по номеру узла, на одном узле
+// ID строго растут.
+//
+// Время и счетчик хранятся в одном AtomicLong и двигаются одним CAS, без
+// блокировок. Если за миллисекунду выдано больше 4096 ID или часы ушли
+// назад, ID продолжают расти "в долг" от последнего выданного, а часы
+// догоняют их позже.
+//
+// Строковая форма - 13 символов base32 (алфавит Крокфорда) фиксированной
+// длины: строки сортируются так же, как числа, то есть по времени создания.
+public class GameIdGenerator {
+    // 2024-01-01T00:00:00Z
+    public static final long EPOCH = 1704067200000L;
+    public static final int NODE_BITS = 10;
+    public static final int MAX_NODE = (1 << NODE_BITS) - 1;
+
+    private static final int SEQUENCE_BITS = 12;
+    private static final char[] ALPHABET = "0123456789abcdefghjkmnpqrstvwxyz".toCharArray();
+    private static final int ID_LENGTH = 13;
+
+    private final long node;
+    // время << SEQUENCE_BITS | счетчик последнего выданного ID
+    private final AtomicLong last = new AtomicLong();
+
+    public GameIdGenerator(int node) {
+        if (node < 0 || node > MAX_NODE) {
+            throw new IllegalArgumentException("Node ID must be in 0.." + MAX_NODE + ": " + node);
+        }
+        this.node = node;
+    }
+
+    public int getNode() {
+        return (int) node;
+    }
+
+    public long nextId() {
+        long now = (System.currentTimeMillis() - EPOCH) << SEQUENCE_BITS;
+        long previous;
+        long next;
+        do {
+            previous = last.get();
+            next = Math.max(previous + 1, now);
+        } while (!last.compareAndSet(previous, next));
+
+        long time = next >>> SEQUENCE_BITS;
+        long sequence = next & ((1L << SEQUENCE_BITS) - 1);
+        return time << (NODE_BITS + SEQUENCE_BITS) | node << SEQUENCE_BITS | sequence;
+    }
+
+    public String nextString() {
+        return toString(nextId());
+    }
+
+    // 13 символов base32, старшие разряды первыми
+    public static String toString(long id) {
+        char[] chars = new char[ID_LENGTH];
+        for (int i = ID_LENGTH - 1; i >= 0; i--) {
+            chars[i] = ALPHABET[(int) (id & 31)];
+            id >>>= 5;
+        }
+        return new String(chars);
+    }
+
+    // строка в форме toString: проверка ID, пришедших от клиента
+    public static boolean isValid(String id) {
+        if (id == null || id.length() != ID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < ID_LENGTH; i++) {
+            char c = id.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'z' || c == 'i' || c == 'l' || c == 'o' || c == 'u')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // момент создания ID, мс по System.currentTimeMillis
+    public static long timestampOf(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH;
+    }
+
+    public static int nodeOf(long id) {
+        return (int) (id >>> SEQUENCE_BITS) & MAX_NODE;
+    }
+}
@@ -0,0 +1,132 @@
+//Очередь команд для игр
+
+
+package server;
+
+import java.util.Queue;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Команды одной игры выполняются строго по очереди и никогда параллельно.
+// Выполняет их пул потоков игр, а не поток, добавивший команду: поток
+// событийного цикла только ставит команду и сразу возвращается, даже если
+// команда пишет на диск.
+//
+// Команда может вернуть незавершенную стадию (например, чтение файла в
+// потоке ввода-вывода). Тогда очередь приостанавливается, не занимая поток,
+// и после завершения стадии выполняет ту же команду еще раз - уже с
+// результатом. Остальные команды игры ждут.
+//
+// Очередь живет, пока в ней есть команды: опустевшая очередь закрывается и
+// уходит из реестра, следующая команда игры создаст новую (см. GameManager).
+//
+// Без блокировок: команды лежат в ConcurrentLinkedQueue, а счетчик pending
+// считает поставленные и еще не выполненные команды. Очередь в пуле, пока
+// pending > 0: в пул ее ставит только тот, кто поднял счетчик с 0, дальше
+// она переставляет себя сама. Последняя выполненная команда переводит
+// счетчик из 1 в CLOSED, и добавить в такую очередь уже нельзя.
+public class GameMailbox implements Runnable {
+    // команд подряд за один заход в пул: активная игра не держит поток долго
+    private static final int BATCH = 64;
+    private static final int CLOSED = -1;
+
+    public interface Command {
+        // null - команда выполнена; иначе повторить ее после завершения стадии
+        CompletionStage<?> run() throws Exception;
+    }
+
+    private final String gameId;
+    private final Executor executor;
+    private final ConcurrentMap<String, GameMailbox> registry;
+
+    private final Queue<Command> commands = new ConcurrentLinkedQueue<>();
+    // поставленные и не выполненные команды или CLOSED
+    private final AtomicInteger pending = new AtomicInteger();
+
+    GameMailbox(String gameId, Executor executor, ConcurrentMap<String, GameMailbox> registry) {
+        this.gameId = gameId;
+        this.executor = executor;
+        this.registry = registry;
+    }
+
+    // Ставит команду игры в ее очередь, создавая очередь при необходимости
+    public static void execute(ConcurrentMap<String, GameMailbox> registry, Executor executor,
+                               String gameId, Command command) {
+        while (true) {
+            GameMailbox mailbox = registry.computeIfAbsent(gameId, id -> new GameMailbox(id, executor, registry));
+            if (mailbox.offer(command)) {
+                return;
+            }
+            // очередь закрылась между поиском и добавлением
+            registry.remove(gameId, mailbox);
+        }
+    }
+
+    // false - очередь уже закрыта, команду надо ставить в новую
+    private boolean offer(Command command) {
+        int count;
+        do {
+            count = pending.get();
+            if (count == CLOSED) {
+                return false;
+            }
+        } while (!pending.compareAndSet(count, count + 1));
+        commands.add(command);
+        if (count == 0) {
+            dispatch();
+        }
+        return true;
+    }
+
+    // команда выполнена; true - она была последней и очередь закрылась
+    private boolean complete() {
+        while (true) {
+            int count = pending.get();
+            if (count == 1 ? pending.compareAndSet(1, CLOSED) : pending.compareAndSet(count, count - 1)) {
+                return count == 1;
+            }
+        }
+    }
+
+    private void dispatch() {
+        try {
+            executor.execute(this);
+        } catch (RejectedExecutionException e) {
+            Log.warn("Пул игр остановлен, команды игры " + gameId + " не выполнены");
+        }
+    }
+
+    @Override
+    public void run() {
+        for (int i = 0; i < BATCH; i++) {
+            Command command = commands.peek();
+            if (command == null) {
+                // счетчик уже поднят, а команда еще не добавлена - зайти позже
+                break;
+            }
+
+            CompletionStage<?> stage = null;
+            try {
+                stage = command.run();
+            } catch (Exception e) {
+                Log.error("Ошибка выполнения команды игры " + gameId + ": " + e.getMessage(), e);
+            }
+            if (stage != null) {
+                // команда остается первой; очередь продолжит в пуле
+                stage.whenComplete((result, error) -> dispatch());
+                return;
+            }
+            commands.poll();
+            if (complete()) {
+                registry.remove(gameId, this);
+                return;
+            }
+        }
+        // остальные команды - после команд других игр
+        dispatch();
+    }
+}
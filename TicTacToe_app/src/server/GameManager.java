@@ -1,20 +1,116 @@
 package server;
 
+import server.storage.HibernationStore;
+import shared.GameMessage;
 import shared.GameState;
 import shared.Move;
+import shared.UltimateBoard;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class GameManager {
+    // второй игрок игры без соперника
+    public static final String WAITING_PLAYER = "Waiting for opponent...";
+
     private ConcurrentHashMap<String, GameSession> activeGames = new ConcurrentHashMap<>();
-    private AIPlayer aiPlayer = new AIPlayer();
+    // Индекс игрок -> ID его игр в activeGames, чтобы не перебирать все игры
+    // сервера ради игр одного игрока. Меняется только внутри compute
+    // activeGames по ID игры (putGame/removeGame), поэтому не расходится с ним.
+    private final ConcurrentHashMap<String, Set<String>> gamesByPlayer = new ConcurrentHashMap<>();
+    private final AIPlayer aiPlayer;
+    // ходы ИИ считаются вне очереди игры и вне потоков соединений
+    private final AIExecutor aiExecutor;
+    private final GameIdGenerator gameIds;
+
+    // подписчики игр: соединения, которым сервер сам отправляет новое состояние
+    private ConcurrentHashMap<String, Set<ClientConnection>> subscribers = new ConcurrentHashMap<>();
+
+    // Все изменения игры идут через ее очередь команд. Очереди закреплены за
+    // ID игры, а не за объектом сессии: загрузка сохранения заменяет сессию,
+    // и замена должна выполняться в той же очереди, что и ходы. Очередь есть
+    // только у игры с невыполненными командами.
+    private final ConcurrentHashMap<String, GameMailbox> mailboxes = new ConcurrentHashMap<>();
+    // потоки, выполняющие очереди игр
+    private final ExecutorService gameWorkers =
+            newDaemonPool("game-worker-", Runtime.getRuntime().availableProcessors());
+    // Чтение и запись файлов уснувших игр. Один поток: операции с файлом
+    // одной игры (запись, чтение, удаление) идут в порядке постановки.
+    private final ExecutorService gameIo = newDaemonPool("game-io-", 1);
+    // сохранения по запросам клиентов: загрузка, список игр игрока
+    private final ExecutorService storageIo = newDaemonPool("storage-io-", 2);
+
+    // команда над сессией, выполняемая в очереди игры
+    public interface GameCommand<T> {
+        T run(GameSession session) throws Exception;
+    }
+
+    // Вытеснение игр из activeGames: завершенные живут FINISHED_GRACE после
+    // последнего обращения, незавершенные - IDLE_TTL без обращений.
+    public static final long DEFAULT_FINISHED_GRACE_MILLIS = 5 * 60 * 1000L;
+    public static final long DEFAULT_IDLE_TTL_MILLIS = 30 * 60 * 1000L;
+    private static final long EVICTION_TICK_MILLIS = 1000;
+    private volatile long finishedGraceMillis = DEFAULT_FINISHED_GRACE_MILLIS;
+    private volatile long idleTtlMillis = DEFAULT_IDLE_TTL_MILLIS;
+    private final TimingWheel<GameSession> expirations;
+    private volatile EvictionListener evictionListener;
+
+    // Гибернация: недоигранная игра без обращений дольше HIBERNATE_AFTER
+    // уходит на диск, в activeGames остается заглушка без состояния.
+    // Следующая команда в очереди игры будит ее.
+    public static final long DEFAULT_HIBERNATE_AFTER_MILLIS = 2 * 60 * 1000L;
+    private volatile HibernationStore hibernation;
+    private volatile long hibernateAfterMillis = DEFAULT_HIBERNATE_AFTER_MILLIS;
+
+    // вызывается в очереди игры перед удалением сессии, например для сохранения
+    public interface EvictionListener {
+        void onEvict(GameSession session) throws Exception;
+    }
+
+    public GameManager() {
+        this(new AIPlayer());
+    }
 
-    public ConcurrentHashMap<String, GameSession> getActiveGames() {
-        return activeGames;
+    public GameManager(AIPlayer aiPlayer) {
+        this(aiPlayer, new AIExecutor());
+    }
+
+    public GameManager(AIPlayer aiPlayer, AIExecutor aiExecutor) {
+        this(aiPlayer, aiExecutor, new GameIdGenerator(0));
+    }
+
+    // gameIds - генератор ID с номером этого узла сервера
+    public GameManager(AIPlayer aiPlayer, AIExecutor aiExecutor, GameIdGenerator gameIds) {
+        this.aiPlayer = aiPlayer;
+        this.aiExecutor = aiExecutor;
+        this.gameIds = gameIds;
+        this.expirations = new TimingWheel<>(EVICTION_TICK_MILLIS, this::expire);
+        expirations.start("game-eviction");
+    }
+
+    // сроки вытеснения; действуют для игр, к которым обратятся после вызова
+    public void setEvictionTimeouts(long finishedGraceMillis, long idleTtlMillis) {
+        this.finishedGraceMillis = finishedGraceMillis;
+        this.idleTtlMillis = idleTtlMillis;
+    }
+
+    public void setEvictionListener(EvictionListener listener) {
+        this.evictionListener = listener;
+    }
+
+    // без хранилища гибернация выключена; срок не меньше IDLE_TTL тоже ее выключает
+    public void setHibernation(HibernationStore store, long hibernateAfterMillis) {
+        this.hibernation = store;
+        this.hibernateAfterMillis = hibernateAfterMillis;
     }
 
     public static class GameSession implements Serializable {
@@ -25,25 +121,48 @@ public class GameManager {
         private String player2;
         private GameState gameState;
         private boolean isActive;
+        // уровень ИИ; в старых сохранениях поля нет (null - легкий уровень)
+        private AIPlayer.Difficulty aiDifficulty;
+        // последний ход: победу на больших полях ищем только через него
+        private transient Move lastMove;
+        // дерево поиска ИИ с прошлого хода; после загрузки строится заново
+        private transient MctsEngine.Tree aiTree;
+        // таймер вытеснения из activeGames
+        private transient volatile TimingWheel.Timeout<GameSession> expiry;
+        // время последнего обращения, мс
+        private transient volatile long lastAccess;
+        // состояние на диске, gameState == null
+        private transient volatile boolean hibernated;
 
 
         public GameSession(String gameId, String player1, String player2) {
+            this(gameId, player1, player2, GameState.SIZE, GameState.SIZE, GameState.SIZE);
+        }
+
+        public GameSession(String gameId, String player1, String player2, int rows, int cols, int winLength) {
+            this(gameId, player1, player2, new GameState(rows, cols, winLength));
+        }
+
+        // игра с готовым начальным состоянием (например, GameState.ultimate())
+        public GameSession(String gameId, String player1, String player2, GameState gameState) {
             this.gameId = gameId;
             this.player1 = player1;
             this.player2 = player2;
-            this.gameState = new GameState();
+            this.gameState = gameState;
             this.isActive = true;
         }
 
         public boolean isValidMove(Move move) {
             int row = move.getRow();
             int col = move.getCol();
-            String[][] board = gameState.getBoard();
 
             // Проверяем границы и пустую клетку
-            return row >= 0 && row < 3 &&
-                    col >= 0 && col < 3 &&
-                    (board[row][col] == null || board[row][col].isEmpty());
+            if (row < 0 || row >= gameState.getRows() || col < 0 || col >= gameState.getCols() ||
+                    !gameState.isEmpty(row, col)) {
+                return false;
+            }
+            // в ультимейте поле хода задает прошлый ход соперника
+            return !gameState.isUltimate() || UltimateBoard.from(gameState).isLegal(UltimateBoard.move(row, col));
         }
 
         public void makeMove(Move move, String player) {
@@ -56,6 +175,7 @@ public class GameManager {
 
             // Обновляем доску
             gameState.makeMove(move.getRow(), move.getCol(), symbol);
+            lastMove = move;
 
 
             // Меняем текущего игрока
@@ -63,62 +183,54 @@ public class GameManager {
             gameState.setCurrentPlayer(newPlayerSymbol);
 
             // Выводим информацию о следующем ходе
-            String nextPlayerName = newPlayerSymbol == 'X' ? player1 : player2;
-            System.out.println("Следующий ход: " + newPlayerSymbol + " (" + nextPlayerName + ")");
+            Log.debug(() -> "Следующий ход: " + newPlayerSymbol + " (" +
+                    (newPlayerSymbol == 'X' ? player1 : player2) + ")");
         }
 
 
+        // Поле 3x3 проверяется по таблице выигрышных линий, большие поля - только
+        // по линиям через последний ход. Найденная линия запоминается
+        // в состоянии, чтобы клиент мог ее подсветить.
         public boolean checkWin(String player) {
             String symbol = player.equals(player1) ? "X" : "O";
-            String[][] board = gameState.getBoard();
-
-            // Проверка строк
-            for (int i = 0; i < 3; i++) {
-                if (symbol.equals(board[i][0]) &&
-                        symbol.equals(board[i][1]) &&
-                        symbol.equals(board[i][2])) {
-                    System.out.println("Игрок '" + player + "' выиграл по строке " + i + "!");
-                    return true;
+            if (gameState.isUltimate()) {
+                // победа - три выигранных малых поля в ряд
+                UltimateBoard board = UltimateBoard.from(gameState);
+                if (board.winner() != ("X".equals(symbol) ? 1 : 2)) {
+                    return false;
                 }
+                gameState.setWinCells(board.winCells());
+                return true;
             }
-
-            // Проверка столбцов
-            for (int i = 0; i < 3; i++) {
-                if (symbol.equals(board[0][i]) &&
-                        symbol.equals(board[1][i]) &&
-                        symbol.equals(board[2][i])) {
-                    System.out.println("Игрок '" + player + "' выиграл по столбцу " + i + "!");
-                    return true;
+            if (gameState.isClassic()) {
+                int line = GameState.findWinLine(gameState.getMask(symbol));
+                if (line == 0) {
+                    return false;
                 }
+                gameState.setWinLine(line);
+                return true;
             }
 
-            // Проверка диагоналей
-            if (symbol.equals(board[0][0]) &&
-                    symbol.equals(board[1][1]) &&
-                    symbol.equals(board[2][2])) {
-                System.out.println("Игрок '" + player + "' выиграл по главной диагонали!");
-                return true;
+            if (lastMove == null || !symbol.equals(gameState.getCell(lastMove.getRow(), lastMove.getCol()))) {
+                return false;
             }
-            if (symbol.equals(board[0][2]) &&
-                    symbol.equals(board[1][1]) &&
-                    symbol.equals(board[2][0])) {
-                System.out.println("Игрок '" + player + "' выиграл по побочной диагонали!");
-                return true;
+            int[] line = gameState.findWinAt(lastMove.getRow(), lastMove.getCol());
+            if (line == null) {
+                return false;
             }
-
-            return false;
+            gameState.setWinCells(line);
+            return true;
         }
 
         public boolean isBoardFull() {
-            String[][] board = gameState.getBoard();
-            for (int i = 0; i < 3; i++) {
-                for (int j = 0; j < 3; j++) {
-                    if (board[i][j] == null || board[i][j].isEmpty()) {
-                        return false;
-                    }
-                }
+            if (gameState.isUltimate() && UltimateBoard.from(gameState).isFinished()) {
+                Log.debug("Ничья! Все малые поля закрыты.");
+                return true;
+            }
+            if (!gameState.isFull()) {
+                return false;
             }
-            System.out.println("Ничья! Доска полностью заполнена.");
+            Log.debug("Ничья! Доска полностью заполнена.");
             return true;
         }
 
@@ -133,31 +245,123 @@ public class GameManager {
         public void setActive(boolean active) {
             isActive = active;
             if (!active) {
-                System.out.println("Игра завершена. ID: " + gameId);
+                Log.debug(() -> "Игра завершена. ID: " + gameId);
             }
         }
+        public boolean isHibernated() { return hibernated; }
         public String getPlayer1() { return player1; }
         public String getPlayer2() { return player2; }
 
+        public AIPlayer.Difficulty getAiDifficulty() {
+            return aiDifficulty == null ? AIPlayer.Difficulty.EASY : aiDifficulty;
+        }
+        public void setAiDifficulty(AIPlayer.Difficulty aiDifficulty) { this.aiDifficulty = aiDifficulty; }
+
+        // вызывается и вне очереди игры - при остановке размышления
+        public synchronized MctsEngine.Tree getAiTree() {
+            if (aiTree == null) {
+                aiTree = new MctsEngine.Tree();
+            }
+            return aiTree;
+        }
+
     }
 
-    public GameState processMove(String gameId, Move move, String player) {
-        GameSession session = activeGames.get(gameId);
+    private static ExecutorService newDaemonPool(String name, int threads) {
+        AtomicInteger index = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, name + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
 
-        if (session == null) {
-            System.out.println("Ошибка: Игровая сессия не найдена: " + gameId);
-            throw new IllegalArgumentException("Game session not found: " + gameId);
-        }
+    // команда в очереди игры; выполняется в потоке пула игр
+    private void inGame(String gameId, Runnable command) {
+        inGameAsync(gameId, () -> {
+            command.run();
+            return null;
+        });
+    }
+
+    private void inGameAsync(String gameId, GameMailbox.Command command) {
+        GameMailbox.execute(mailboxes, gameWorkers, gameId, command);
+    }
+
+    // Блокирующая работа с сохранениями вне потоков соединений и очередей игр.
+    // Результат приходит в потоке ввода-вывода.
+    public <T> CompletableFuture<T> runStorage(Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        storageIo.execute(() -> {
+            try {
+                result.complete(task.call());
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    // Выполняет команду над текущей сессией игры в ее очереди; уснувшая игра
+    // сначала просыпается. Результат приходит в потоке пула игр.
+    public <T> CompletableFuture<T> withGame(String gameId, GameCommand<T> command) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        inGameAsync(gameId, () -> {
+            GameSession session = activeGames.get(gameId);
+            if (session == null) {
+                Log.warn("Игровая сессия не найдена: " + gameId);
+                result.completeExceptionally(new IllegalArgumentException("Game session not found: " + gameId));
+                return null;
+            }
+            if (session.isHibernated()) {
+                // команда повторится, когда состояние прочитается с диска
+                return wake(session);
+            }
+            try {
+                result.complete(command.run(session));
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+            // любое обращение к игре откладывает ее вытеснение
+            if (activeGames.get(gameId) == session) {
+                scheduleExpiry(session);
+            }
+            return null;
+        });
+        return result;
+    }
+
+    // Ход игрока; возвращает снимок состояния сразу после него.
+    // Ответ ИИ считается отдельно и приходит подписчикам событием GAME_STATE_UPDATE.
+    public CompletableFuture<GameState> processMove(String gameId, Move move, String player) {
+        // ход пришел - размышление ИИ больше не нужно
+        stopPondering(gameId);
+        return withGame(gameId, session -> applyMove(session, move, player));
+    }
+
+    // возвращение загруженной игры в активные; заменяет сессию с тем же ID
+    public CompletableFuture<GameState> restoreGame(GameSession loaded) {
+        CompletableFuture<GameState> result = new CompletableFuture<>();
+        inGame(loaded.getGameId(), () -> {
+            putGame(loaded);
+            // игра могла быть сохранена в ожидании хода ИИ
+            resumeAIMove(loaded);
+            result.complete(loaded.getGameState().copy());
+        });
+        return result;
+    }
+
+    // вызывается только из очереди игры
+    private GameState applyMove(GameSession session, Move move, String player) {
+        String gameId = session.getGameId();
 
         // Выводим информацию о начале обработки хода
-        System.out.println("\n=== СЕРВЕР: Обработка хода ===");
-        System.out.println("Игра: " + gameId);
-        System.out.println("Игрок: " + player);
-        System.out.println("Ход: [" + move.getRow() + "," + move.getCol() + "]");
+        Log.debug(() -> "Обработка хода: игра " + gameId + ", игрок " + player +
+                ", ход [" + move.getRow() + "," + move.getCol() + "]");
 
         // Проверка возможности хода
         if (!session.isValidMove(move)) {
-            System.out.println("Ошибка: Недопустимый ход [" + move.getRow() + "," + move.getCol() + "]");
+            Log.debug(() -> "Недопустимый ход [" + move.getRow() + "," + move.getCol() + "] в игре " + gameId);
             throw new IllegalArgumentException("Invalid move");
         }
 
@@ -169,34 +373,165 @@ public class GameManager {
             session.getGameState().setGameOver(true);
             session.getGameState().setWinner(player);
             session.setActive(false);
-            System.out.println("=== Игра завершена. Победитель: " + player + " ===\n");
-            return session.getGameState();
+            Log.info(() -> "Игра " + gameId + " завершена. Победитель: " + player);
         } else if (session.isBoardFull()) {
             session.getGameState().setGameOver(true);
             session.getGameState().setWinner("DRAW");
             session.setActive(false);
-            System.out.println("=== Игра завершена. Ничья! ===\n");
-            return session.getGameState();
+            Log.info(() -> "Игра " + gameId + " завершена. Ничья!");
+        } else if (session.isVsAI()) {
+            // 3. Если игра против ИИ и игра еще активна - ставим ход ИИ в очередь
+            Log.debug("Ход ИИ поставлен в очередь");
+            scheduleAIMove(session);
         }
+        releaseAiTreeIfOver(session);
+
+        // 4. Рассылаем новое состояние всем подключенным к игре
+        publishState(session);
 
-        // 3. Если игра против ИИ и игра еще активна - делаем ход ИИ
-        if (session.isVsAI() && session.isActive()) {
-            System.out.println("--- Ход ИИ ---");
-            makeAIMove(session);
+        Log.debug("Обработка хода завершена");
+        return session.getGameState().copy();
+    }
+
+    // подписка соединения на изменения игры
+    public void subscribe(String gameId, ClientConnection connection) {
+        subscribers.computeIfAbsent(gameId, id -> ConcurrentHashMap.newKeySet()).add(connection);
+
+        // игрок вернулся в игру, где ход ИИ был отменен
+        GameSession session = activeGames.get(gameId);
+        if (session != null && session.isVsAI()) {
+            withGame(gameId, current -> {
+                resumeAIMove(current);
+                return null;
+            });
         }
+    }
 
-        System.out.println("=== Обработка хода завершена ===\n");
-        return session.getGameState();
+    public void unsubscribe(String gameId, ClientConnection connection) {
+        Set<ClientConnection> remaining = subscribers.computeIfPresent(gameId, (id, connections) -> {
+            connections.remove(connection);
+            return connections.isEmpty() ? null : connections;
+        });
+
+        // за игрой больше никто не следит - ход ИИ не нужен
+        if (remaining == null) {
+            aiExecutor.cancel(gameId);
+            stopPondering(gameId);
+        }
     }
 
-    private void makeAIMove(GameSession session) {
-        try {
-            // Получаем текущее состояние доски
-            String[][] board = session.getGameState().getBoard();
+    // дерево поиска ИИ окончившейся игре больше не нужно
+    private void releaseAiTreeIfOver(GameSession session) {
+        if (session.getGameState().isGameOver()) {
+            releaseAiTree(session);
+        }
+    }
+
+    // Дерево поиска не нужно: игра окончена, уснула, удалена или заменена.
+    // Узлы освобождаются сразу, а не когда дерево найдет сборщик мусора.
+    private void releaseAiTree(GameSession session) {
+        MctsEngine.Tree tree;
+        synchronized (session) {
+            tree = session.aiTree;
+            session.aiTree = null;
+        }
+        if (tree != null) {
+            aiPlayer.releaseTree(tree);
+        }
+    }
+
+    private void stopPondering(String gameId) {
+        GameSession session = activeGames.get(gameId);
+        if (session != null && session.isVsAI() && !session.isHibernated()) {
+            session.getAiTree().stopPondering();
+        }
+    }
+
+    // отправка события GAME_STATE_UPDATE подписчикам игры
+    private void publishState(GameSession session) {
+        Set<ClientConnection> connections = subscribers.get(session.getGameId());
+        if (connections == null || connections.isEmpty()) {
+            return;
+        }
 
-            // Получаем ход от ИИ
-            Move aiMove = aiPlayer.getRandomMove(board);
+        GameState state = session.getGameState().copy();
+        GameMessage update = new GameMessage("GAME_STATE_UPDATE");
+        update.addData("gameId", session.getGameId());
+        update.addData("gameState", state);
+        update.addData("gameOver", state.isGameOver());
+        update.addData("winner", state.getWinner());
+
+        for (ClientConnection connection : connections) {
+            connection.send(update);
+        }
+
+        // после окончания игры событий больше не будет
+        if (state.isGameOver()) {
+            subscribers.remove(session.getGameId());
+        }
+    }
 
+    // Ставит ход ИИ в очередь AIExecutor. Поиск идет по снимку состояния,
+    // результат применяется в очереди игры, если позиция за это время не изменилась.
+    // Вызывается только из очереди игры.
+    private void scheduleAIMove(GameSession session) {
+        String gameId = session.getGameId();
+        GameState snapshot = session.getGameState().copy();
+        AIPlayer.Difficulty difficulty = session.getAiDifficulty();
+        MctsEngine.Tree tree = session.getAiTree();
+        int priority = aiPlayer.isInstant(snapshot, difficulty) ?
+                AIExecutor.PRIORITY_FAST : AIExecutor.PRIORITY_SEARCH;
+
+        boolean accepted = aiExecutor.submit(gameId, priority, () -> {
+            Move aiMove = aiPlayer.getMove(snapshot, difficulty, tree);
+            withGame(gameId, current -> {
+                if (current != session || !current.isActive() ||
+                        current.getGameState().getStoneCount() != snapshot.getStoneCount()) {
+                    Log.debug(() -> "Ход ИИ устарел, игра изменилась: " + gameId);
+                    return null;
+                }
+                makeAIMove(current, aiMove);
+                publishState(current);
+                // пока человек думает, ИИ продолжает поиск в новой позиции
+                if (aiPlayer.canPonder(current.getGameState(), difficulty) && subscribers.containsKey(gameId)) {
+                    submitPonder(tree, tree.getGeneration());
+                }
+                return null;
+            });
+        });
+
+        if (!accepted) {
+            // очередь переполнена - отвечаем сразу случайным ходом, чтобы игра не встала
+            Log.warn("Очередь ИИ переполнена, случайный ход в игре " + gameId);
+            makeAIMove(session, aiPlayer.getRandomMove(snapshot));
+        }
+    }
+
+    // Размышление идет порциями: после каждой порции задача встает в конец
+    // очереди размышлений, и один поток делится между всеми играми по кругу.
+    // Порция о позиции, которую соперник уже сменил, ничего не делает.
+    private void submitPonder(MctsEngine.Tree tree, int generation) {
+        aiExecutor.submitPonder(() -> {
+            if (aiPlayer.ponder(tree, generation)) {
+                submitPonder(tree, generation);
+            }
+        });
+    }
+
+    // ход ИИ, если сейчас его очередь и задача еще не поставлена
+    private void resumeAIMove(GameSession session) {
+        GameState state = session.getGameState();
+        // ИИ всегда второй игрок и играет за O
+        if (session.isVsAI() && session.isActive() && !state.isGameOver() &&
+                state.getCurrentPlayer() == 'O' && !aiExecutor.isScheduled(session.getGameId())) {
+            Log.info(() -> "Возобновлен ход ИИ в игре " + session.getGameId());
+            scheduleAIMove(session);
+        }
+    }
+
+    // вызывается только из очереди игры
+    private void makeAIMove(GameSession session, Move aiMove) {
+        try {
             // Если ИИ нашел ход и он валидный
             if (aiMove != null && session.isValidMove(aiMove)) {
                 // Делаем ход ИИ
@@ -207,48 +542,45 @@ public class GameManager {
                     session.getGameState().setGameOver(true);
                     session.getGameState().setWinner(session.getPlayer2());
                     session.setActive(false);
-                    System.out.println("=== Игра завершена. Победитель: ИИ ===\n");
+                    Log.info(() -> "Игра " + session.getGameId() + " завершена. Победитель: ИИ");
                 } else if (session.isBoardFull()) {
                     session.getGameState().setGameOver(true);
                     session.getGameState().setWinner("DRAW");
                     session.setActive(false);
-                    System.out.println("=== Игра завершена. Ничья! ===\n");
+                    Log.info(() -> "Игра " + session.getGameId() + " завершена. Ничья!");
                 }
             } else if (aiMove == null) {
-                System.out.println("ИИ не смог найти ход. Доска заполнена.");
+                Log.warn("ИИ не смог найти ход в игре " + session.getGameId());
             }
 
         } catch (Exception e) {
-            System.err.println("Ошибка при выполнении хода ИИ: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Ошибка при выполнении хода ИИ: " + e.getMessage(), e);
         }
+        releaseAiTreeIfOver(session);
     }
 
     public GameSession createNewGame(String player1, String player2) {
+        return createNewGame(player1, player2, GameState.SIZE, GameState.SIZE, GameState.SIZE);
+    }
+
+    // игра на поле rows x cols, победа - winLength знаков подряд
+    public GameSession createNewGame(String player1, String player2, int rows, int cols, int winLength) {
+        return createNewGame(player1, player2, new GameState(rows, cols, winLength));
+    }
+
+    // игра с начальным состоянием board (поле m,n,k или ультимейт)
+    public GameSession createNewGame(String player1, String player2, GameState board) {
         // ВАЖНО: Генерируем УНИКАЛЬНЫЙ ID для каждой новой игры
-        String gameId = player1 + "_" + System.currentTimeMillis() + "_" +
-                (int)(Math.random() * 1000);
+        String gameId = generateGameId(player1);
 
         // Удаляем старые игры этого игрока (чтобы не накапливались)
         cleanupOldGames(player1);
 
-        System.out.println("\n=== Создание НОВОЙ игры ===");
-        System.out.println("Старые игры игрока " + player1 + ": " +
-                activeGames.values().stream()
-                        .filter(s -> s.getPlayer1().equals(player1) ||
-                                s.getPlayer2().equals(player1))
-                        .count());
-
         // Создаем новую сессию с ПУСТОЙ доской
-        GameSession session = new GameSession(gameId, player1, player2);
+        GameSession session = new GameSession(gameId, player1, player2, board);
 
         // Убеждаемся, что доска ПУСТАЯ
-        String[][] board = session.getGameState().getBoard();
-        for (int i = 0; i < 3; i++) {
-            for (int j = 0; j < 3; j++) {
-                board[i][j] = null; // Явно устанавливаем null
-            }
-        }
+        session.getGameState().clearBoard();
 
         // Явно устанавливаем начальные значения
         session.getGameState().setCurrentPlayer('X');
@@ -256,14 +588,10 @@ public class GameManager {
         session.getGameState().setWinner(null);
 
         // Добавляем в активные игры (старая с таким же ID будет перезаписана)
-        activeGames.put(gameId, session);
+        putGame(session);
 
-        System.out.println("Новый GameID: " + gameId);
-        System.out.println("Игрок 1: " + player1 + " (X)");
-        System.out.println("Игрок 2: " + player2 + " (O)");
-        System.out.println("Доска пустая: ДА");
-        System.out.println("Активных игр всего: " + activeGames.size());
-        System.out.println("===========================\n");
+        Log.info(() -> "Новая игра " + gameId + ": " + player1 + " (X) против " + player2 + " (O), поле " +
+                describeBoard(board) + ", игр игрока " + player1 + ": " + getPlayerGameCount(player1));
 
         return session;
     }
@@ -271,47 +599,278 @@ public class GameManager {
     private void cleanupOldGames(String player) {
         // Удаляем старые ЗАВЕРШЕННЫЕ игры этого игрока
         List<String> toRemove = new ArrayList<>();
-        for (Map.Entry<String, GameSession> entry : activeGames.entrySet()) {
-            GameSession session = entry.getValue();
-            if ((session.getPlayer1().equals(player) || session.getPlayer2().equals(player))
-                    && !session.isActive()) {
-                toRemove.add(entry.getKey());
+        for (String gameId : getPlayerGameIds(player)) {
+            GameSession session = activeGames.get(gameId);
+            if (session != null && !session.isActive()) {
+                toRemove.add(gameId);
             }
         }
 
         for (String gameId : toRemove) {
-            activeGames.remove(gameId);
-            System.out.println("Удалена завершенная игра: " + gameId);
+            inGame(gameId, () -> {
+                GameSession session = activeGames.get(gameId);
+                if (session != null && !session.isActive() && removeGame(session)) {
+                    Log.debug(() -> "Удалена завершенная игра: " + gameId);
+                }
+            });
         }
     }
 
+    // ID игр игрока в activeGames (снимок)
+    public List<String> getPlayerGameIds(String player) {
+        Set<String> ids = gamesByPlayer.get(player);
+        return ids == null ? new ArrayList<>() : new ArrayList<>(ids);
+    }
+
+    // число игр игрока в activeGames, без обхода всех игр
+    public int getPlayerGameCount(String player) {
+        Set<String> ids = gamesByPlayer.get(player);
+        return ids == null ? 0 : ids.size();
+    }
+
+    // добавление или замена игры вместе с индексом игроков
+    private void putGame(GameSession session) {
+        GameSession[] replaced = new GameSession[1];
+        activeGames.compute(session.getGameId(), (gameId, previous) -> {
+            if (previous != null) {
+                unindex(previous);
+                expirations.cancel(previous.expiry);
+                replaced[0] = previous;
+            }
+            index(session);
+            return session;
+        });
+        if (replaced[0] != null && replaced[0] != session) {
+            releaseAiTree(replaced[0]);
+            discardHibernated(replaced[0]);
+        }
+        scheduleExpiry(session);
+    }
+
+    // удаление игры, если под ее ID все еще эта сессия
+    private boolean removeGame(GameSession session) {
+        boolean[] removed = new boolean[1];
+        activeGames.computeIfPresent(session.getGameId(), (gameId, current) -> {
+            if (current != session) {
+                return current;
+            }
+            unindex(current);
+            expirations.cancel(current.expiry);
+            removed[0] = true;
+            return null;
+        });
+        if (removed[0]) {
+            releaseAiTree(session);
+            discardHibernated(session);
+        }
+        return removed[0];
+    }
+
+    // Переставляет таймер вытеснения: O(1), поэтому делается при каждом обращении.
+    // Вызывается из очереди игры или до того, как игра стала доступна другим потокам.
+    // Сессия при этом должна быть в памяти (не уснувшей).
+    private void scheduleExpiry(GameSession session) {
+        expirations.cancel(session.expiry);
+        session.lastAccess = System.currentTimeMillis();
+        long delay;
+        if (!session.isActive() || session.getGameState().isGameOver()) {
+            delay = finishedGraceMillis;
+        } else {
+            delay = canHibernate() ? hibernateAfterMillis : idleTtlMillis;
+        }
+        session.expiry = expirations.schedule(session, delay);
+    }
+
+    private boolean canHibernate() {
+        return hibernation != null && hibernateAfterMillis < idleTtlMillis;
+    }
+
+    // Состояние - на диск, в памяти остается заглушка: ID, игроки, уровень ИИ.
+    // Вызывается из очереди игры; запись идет в потоке ввода-вывода, и очередь
+    // ждет возвращенную стадию. null - игру сейчас усыплять нельзя.
+    private CompletableFuture<Void> hibernate(GameSession session) {
+        HibernationStore store = hibernation;
+        if (store == null || aiExecutor.isScheduled(session.getGameId())) {
+            return null;
+        }
+        stopPondering(session.getGameId());
+        GameState state = session.gameState;
+        return CompletableFuture.runAsync(() -> {
+            try {
+                store.save(session.getGameId(), state);
+            } catch (IOException e) {
+                Log.warn("Не удалось усыпить игру " + session.getGameId() + ": " + e.getMessage());
+                return;
+            }
+            releaseAiTree(session);
+            synchronized (session) {
+                session.gameState = null;
+                session.lastMove = null;
+                session.hibernated = true;
+            }
+            Log.debug(() -> "Игра уснула: " + session.getGameId());
+        }, gameIo);
+    }
+
+    // Возвращает состояние уснувшей игры в память. Вызывается из очереди игры;
+    // чтение идет в потоке ввода-вывода, очередь ждет возвращенную стадию.
+    // Если состояние не прочиталось, игра потеряна и удаляется.
+    private CompletableFuture<Void> wake(GameSession session) {
+        HibernationStore store = hibernation;
+        return CompletableFuture.runAsync(() -> {
+            try {
+                session.gameState = store.load(session.getGameId());
+                session.hibernated = false;
+            } catch (IOException | RuntimeException e) {
+                Log.error("Не удалось разбудить игру " + session.getGameId() + ": " + e.getMessage(), e);
+                removeGame(session);
+                return;
+            }
+            Log.debug(() -> "Игра проснулась: " + session.getGameId());
+        }, gameIo);
+    }
+
+    // файл удаленной или замененной уснувшей игры больше не нужен
+    private void discardHibernated(GameSession session) {
+        if (session.isHibernated()) {
+            HibernationStore store = hibernation;
+            gameIo.execute(() -> {
+                try {
+                    store.delete(session.getGameId());
+                } catch (IOException e) {
+                    Log.warn("Не удалось удалить файл уснувшей игры " + session.getGameId() + ": " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    // срабатывание таймера; само удаление - в очереди игры
+    private void expire(GameSession session) {
+        String gameId = session.getGameId();
+        inGameAsync(gameId, () -> {
+            // игра заменена, удалена или таймер переставлен после срабатывания
+            if (activeGames.get(gameId) != session || expirations.isPending(session.expiry)) {
+                return null;
+            }
+            // недоигранная игра сначала засыпает, из памяти уходит через IDLE_TTL;
+            // таймер ставится до записи, поэтому повтор команды сразу выйдет
+            long idle = System.currentTimeMillis() - session.lastAccess;
+            boolean finished = !session.isActive() ||
+                    (!session.isHibernated() && session.getGameState().isGameOver());
+            if (!finished && idle < idleTtlMillis) {
+                session.expiry = expirations.schedule(session, idleTtlMillis - idle);
+                return session.isHibernated() ? null : hibernate(session);
+            }
+            EvictionListener listener = evictionListener;
+            if (listener != null) {
+                // обработчику нужно полное состояние
+                if (session.isHibernated()) {
+                    return wake(session);
+                }
+                try {
+                    listener.onEvict(session);
+                } catch (Exception e) {
+                    Log.error("Ошибка обработки вытеснения игры " + gameId + ": " + e.getMessage(), e);
+                }
+            }
+            aiExecutor.cancel(gameId);
+            stopPondering(gameId);
+            subscribers.remove(gameId);
+            if (removeGame(session)) {
+                Log.info("Игра вытеснена из памяти: " + gameId + " (" +
+                        (session.isActive() ? "нет обращений" : "завершена") + "), активных игр: " +
+                        activeGames.size());
+            }
+            return null;
+        });
+    }
+
+    private void index(GameSession session) {
+        for (String player : indexedPlayers(session)) {
+            gamesByPlayer.compute(player, (name, ids) -> {
+                if (ids == null) {
+                    ids = ConcurrentHashMap.newKeySet();
+                }
+                ids.add(session.getGameId());
+                return ids;
+            });
+        }
+    }
+
+    private void unindex(GameSession session) {
+        for (String player : indexedPlayers(session)) {
+            gamesByPlayer.computeIfPresent(player, (name, ids) -> {
+                ids.remove(session.getGameId());
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+    }
+
+    // ИИ и заглушка ожидания соперника - не игроки, их игры не индексируются
+    private static List<String> indexedPlayers(GameSession session) {
+        List<String> players = new ArrayList<>(2);
+        players.add(session.getPlayer1());
+        String player2 = session.getPlayer2();
+        if (player2 != null && !session.isVsAI() && !WAITING_PLAYER.equals(player2) &&
+                !player2.equals(session.getPlayer1())) {
+            players.add(player2);
+        }
+        return players;
+    }
+
     public GameSession createGameWithAI(String player) {
+        return createGameWithAI(player, AIPlayer.Difficulty.EASY);
+    }
+
+    public GameSession createGameWithAI(String player, AIPlayer.Difficulty difficulty) {
+        return createGameWithAI(player, difficulty, GameState.SIZE, GameState.SIZE, GameState.SIZE);
+    }
+
+    public GameSession createGameWithAI(String player, AIPlayer.Difficulty difficulty,
+                                        int rows, int cols, int winLength) {
+        return createGameWithAI(player, difficulty, new GameState(rows, cols, winLength));
+    }
+
+    public GameSession createGameWithAI(String player, AIPlayer.Difficulty difficulty, GameState board) {
         String gameId = generateGameId(player);
-        GameSession session = new GameSession(gameId, player, "AI");
-        activeGames.put(gameId, session);
+        GameSession session = new GameSession(gameId, player, "AI", board);
+        session.setAiDifficulty(difficulty);
+        putGame(session);
 
-        System.out.println("\n=== Создана игра против ИИ ===");
-        System.out.println("ID игры: " + gameId);
-        System.out.println("Игрок: " + player + " (X)");
-        System.out.println("Соперник: ИИ (O) - легкий уровень");
-        System.out.println("Первый ход: X (" + player + ")");
-        System.out.println("===========================\n");
+        Log.info(() -> "Новая игра против ИИ " + gameId + ": " + player + " (X) против ИИ (O) - " +
+                (difficulty == AIPlayer.Difficulty.EASY ? "легкий уровень" : "сложный уровень (" + difficulty + ")") +
+                ", поле " + describeBoard(board));
 
         return session;
     }
 
-    public GameSession getGameSession(String gameId) {
-        GameSession session = activeGames.get(gameId);
-        if (session != null) {
-            System.out.println("Запрошена игра: " + gameId + " | Статус: " +
-                    (session.isActive() ? "активна" : "завершена"));
+    private static String describeBoard(GameState board) {
+        if (board.isUltimate()) {
+            return "ультимейт 9x9";
         }
-        return session;
+        return board.getRows() + "x" + board.getCols() + ", " + board.getWinLength() + " в ряд";
+    }
+
+    // Сессия игры; уснувшая игра сначала просыпается в своей очереди, так что
+    // getGameState() у полученной сессии не null. Сессия живая: менять ее можно
+    // только через команды очереди (withGame).
+    public CompletableFuture<GameSession> getGameSession(String gameId) {
+        return withGame(gameId, session -> {
+            Log.debug(() -> "Запрошена игра: " + gameId + " | Статус: " +
+                    (session.isActive() ? "активна" : "завершена"));
+            return session;
+        });
+    }
+
+    // снимок состояния игры; уснувшая игра просыпается в своей очереди
+    public CompletableFuture<GameState> getGameState(String gameId) {
+        return withGame(gameId, session -> session.getGameState().copy());
     }
 
+    // ID не повторяются ни на этом узле, ни на других узлах с другим номером
     private String generateGameId(String player) {
-        String gameId = player + "_" + System.currentTimeMillis();
-        System.out.println("Сгенерирован ID игры: " + gameId);
+        String gameId = gameIds.nextString();
+        Log.debug(() -> "Сгенерирован ID игры: " + gameId + " (игрок " + player + ")");
         return gameId;
     }
 }
\ No newline at end of file
@@ -0,0 +1,194 @@
+//Асинхронный журнал сервера
+
+
+package server;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+// Журнал с уровнями. Вызов записи только кладет запись в кольцевой буфер,
+// а форматирует и печатает ее фоновый поток, поэтому потоки соединений и
+// очереди игр не ждут друг друга на блокировке System.out.
+//
+// Запись отключенного уровня - одно сравнение с volatile-полем; текст,
+// собираемый через Supplier, в этом случае не строится. Если буфер полон,
+// запись отбрасывается и учитывается в счетчике: ход игрока важнее строки журнала.
+public final class Log {
+    public enum Level { DEBUG, INFO, WARN, ERROR, OFF }
+
+    private static final int CAPACITY = 1 << 16;
+    private static final DateTimeFormatter TIME =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private static final class Entry {
+        final long time;
+        final Level level;
+        final String thread;
+        final String message;
+        final Throwable error;
+
+        Entry(Level level, String message, Throwable error) {
+            this.time = System.currentTimeMillis();
+            this.level = level;
+            this.thread = Thread.currentThread().getName();
+            this.message = message;
+            this.error = error;
+        }
+    }
+
+    // Кольцо на много писателей и одного читателя. Писатель занимает номер
+    // CAS-ом по tail и потом кладет запись в ячейку; читатель идет по head
+    // и ждет ячейку, номер которой уже занят, а запись еще не положена.
+    private static final AtomicReferenceArray<Entry> ring = new AtomicReferenceArray<>(CAPACITY);
+    private static final AtomicLong tail = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+    private static volatile long head;
+
+    private static volatile int threshold = Level.INFO.ordinal();
+    private static final Thread writer;
+
+    static {
+        writer = new Thread(Log::drainLoop, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "log-flush"));
+    }
+
+    private Log() {
+    }
+
+    public static void setLevel(Level level) {
+        threshold = level.ordinal();
+    }
+
+    public static Level getLevel() {
+        return Level.values()[threshold];
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.ordinal() >= threshold;
+    }
+
+    public static boolean isDebugEnabled() {
+        return Level.DEBUG.ordinal() >= threshold;
+    }
+
+    public static void debug(String message) {
+        if (Level.DEBUG.ordinal() >= threshold) {
+            publish(new Entry(Level.DEBUG, message, null));
+        }
+    }
+
+    public static void debug(Supplier<String> message) {
+        if (Level.DEBUG.ordinal() >= threshold) {
+            publish(new Entry(Level.DEBUG, message.get(), null));
+        }
+    }
+
+    public static void info(String message) {
+        if (Level.INFO.ordinal() >= threshold) {
+            publish(new Entry(Level.INFO, message, null));
+        }
+    }
+
+    public static void info(Supplier<String> message) {
+        if (Level.INFO.ordinal() >= threshold) {
+            publish(new Entry(Level.INFO, message.get(), null));
+        }
+    }
+
+    public static void warn(String message) {
+        if (Level.WARN.ordinal() >= threshold) {
+            publish(new Entry(Level.WARN, message, null));
+        }
+    }
+
+    public static void error(String message) {
+        error(message, null);
+    }
+
+    public static void error(String message, Throwable error) {
+        if (Level.ERROR.ordinal() >= threshold) {
+            publish(new Entry(Level.ERROR, message, error));
+        }
+    }
+
+    // число записей, отброшенных из-за полного буфера
+    public static long getDropped() {
+        return dropped.get();
+    }
+
+    // ждет, пока фоновый поток напечатает все уже сделанные записи
+    public static void flush() {
+        long target = tail.get();
+        while (head < target && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            Thread.onSpinWait();
+        }
+        System.out.flush();
+        System.err.flush();
+    }
+
+    private static void publish(Entry entry) {
+        long index;
+        do {
+            index = tail.get();
+            if (index - head >= CAPACITY) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!tail.compareAndSet(index, index + 1));
+        ring.lazySet((int) index & (CAPACITY - 1), entry);
+        // читатель спит, только когда кольцо было пусто
+        if (index == head) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private static void drainLoop() {
+        long reportedDrops = 0;
+        long reportedAt = 0;
+        while (true) {
+            // об отброшенных записях - не чаще раза в секунду
+            long drops = dropped.get();
+            if (drops != reportedDrops && System.currentTimeMillis() - reportedAt >= 1000) {
+                System.err.println("Журнал: буфер переполнен, отброшено записей: " + (drops - reportedDrops));
+                reportedDrops = drops;
+                reportedAt = System.currentTimeMillis();
+            }
+
+            long next = head;
+            if (next == tail.get()) {
+                System.out.flush();
+                System.err.flush();
+                LockSupport.parkNanos(1_000_000);
+                continue;
+            }
+            int slot = (int) next & (CAPACITY - 1);
+            Entry entry = ring.get(slot);
+            if (entry == null) {
+                // номер занят, запись еще в пути
+                Thread.onSpinWait();
+                continue;
+            }
+            ring.lazySet(slot, null);
+            head = next + 1;
+            write(entry);
+        }
+    }
+
+    private static void write(Entry entry) {
+        PrintStream out = entry.level.compareTo(Level.WARN) >= 0 ? System.err : System.out;
+        out.println(TIME.format(Instant.ofEpochMilli(entry.time)) + " " + entry.level +
+                " [" + entry.thread + "] " + entry.message);
+        if (entry.error != null) {
+            entry.error.printStackTrace(out);
+        }
+    }
+}
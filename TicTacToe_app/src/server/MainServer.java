@@ -4,6 +4,9 @@
 package server;
 
 import server.storage.GameStorage;
+import server.storage.HibernationStore;
+
+import java.io.IOException;
 
 public class MainServer {
     public static void main(String[] args) {
@@ -12,7 +15,9 @@ public class MainServer {
 
             // Инициализация компонентов
             AuthManager authManager = new AuthManager();
-            GameManager gameManager = new GameManager();
+
+            // Таблица ходов ИИ строится до приема соединений
+            PerfectPlayTable.init();
 
             // Инициализация хранилища (если используется)
             try {
@@ -23,17 +28,118 @@ public class MainServer {
             }
 
             // Запуск основного сервера
+            // Аргументы: [порт] [--mode=nio|platform|virtual]
+            //           [--ai-time=мс] [--ai-playouts=N] - бюджет хода ИИ на больших полях
+            //           [--ai-threads=N] - потоков поиска ИИ
+            //           [--ai-tree-nodes=N] [--ai-total-nodes=N] - узлов в дереве поиска
+            //           одной игры и во всех деревьях сервера
+            //           [--finished-ttl=с] [--idle-ttl=с] - через сколько завершенные
+            //           и брошенные игры вытесняются из памяти
+            //           [--hibernate-after=с] - через сколько без обращений недоигранная
+            //           игра уходит на диск (не меньше idle-ttl - не уходит)
+            //           [--node-id=N] - номер узла (0..1023) для ID игр, у каждого узла свой
+            //           [--log-level=debug|info|warn|error|off] - подробность журнала,
+            //           debug - каждый ход и каждый поиск ИИ
             int port = 12345;
-            if (args.length > 0) {
-                try {
-                    port = Integer.parseInt(args[0]);
-                } catch (NumberFormatException e) {
-                    System.out.println("Неверный порт, используем порт по умолчанию: " + port);
+            ServerCore.ExecutionMode mode = ServerCore.ExecutionMode.NIO;
+            long aiTime = MctsEngine.DEFAULT_TIME_MILLIS;
+            int aiPlayouts = MctsEngine.DEFAULT_MAX_PLAYOUTS;
+            int aiThreads = MctsEngine.maxThreads();
+            int aiTreeNodes = MctsEngine.DEFAULT_MAX_TREE_NODES;
+            long aiTotalNodes = MctsEngine.DEFAULT_MAX_TOTAL_NODES;
+            long finishedTtl = GameManager.DEFAULT_FINISHED_GRACE_MILLIS / 1000;
+            long idleTtl = GameManager.DEFAULT_IDLE_TTL_MILLIS / 1000;
+            long hibernateAfter = GameManager.DEFAULT_HIBERNATE_AFTER_MILLIS / 1000;
+            int nodeId = 0;
+            for (String arg : args) {
+                if (arg.startsWith("--mode=")) {
+                    try {
+                        mode = ServerCore.ExecutionMode.parse(arg.substring("--mode=".length()));
+                    } catch (IllegalArgumentException e) {
+                        System.out.println(e.getMessage() + ", используем режим по умолчанию: " + mode);
+                    }
+                } else if (arg.startsWith("--ai-time=")) {
+                    aiTime = parseBudget(arg.substring("--ai-time=".length()), aiTime);
+                } else if (arg.startsWith("--ai-playouts=")) {
+                    aiPlayouts = (int) parseBudget(arg.substring("--ai-playouts=".length()), aiPlayouts);
+                } else if (arg.startsWith("--ai-threads=")) {
+                    aiThreads = (int) parseBudget(arg.substring("--ai-threads=".length()), aiThreads);
+                } else if (arg.startsWith("--ai-tree-nodes=")) {
+                    aiTreeNodes = (int) parseBudget(arg.substring("--ai-tree-nodes=".length()), aiTreeNodes);
+                } else if (arg.startsWith("--ai-total-nodes=")) {
+                    aiTotalNodes = parseBudget(arg.substring("--ai-total-nodes=".length()), aiTotalNodes);
+                } else if (arg.startsWith("--finished-ttl=")) {
+                    finishedTtl = parseBudget(arg.substring("--finished-ttl=".length()), finishedTtl);
+                } else if (arg.startsWith("--node-id=")) {
+                    try {
+                        nodeId = Integer.parseInt(arg.substring("--node-id=".length()));
+                    } catch (NumberFormatException e) {
+                        nodeId = -1;
+                    }
+                    if (nodeId < 0 || nodeId > GameIdGenerator.MAX_NODE) {
+                        nodeId = 0;
+                        System.out.println("Неверный номер узла: " + arg + ", используем " + nodeId);
+                    }
+                } else if (arg.startsWith("--log-level=")) {
+                    try {
+                        Log.setLevel(Log.Level.valueOf(arg.substring("--log-level=".length()).toUpperCase()));
+                    } catch (IllegalArgumentException e) {
+                        System.out.println("Неверный уровень журнала: " + arg + ", используем " + Log.getLevel());
+                    }
+                } else if (arg.startsWith("--hibernate-after=")) {
+                    hibernateAfter = parseBudget(arg.substring("--hibernate-after=".length()), hibernateAfter);
+                } else if (arg.startsWith("--idle-ttl=")) {
+                    idleTtl = parseBudget(arg.substring("--idle-ttl=".length()), idleTtl);
+                } else {
+                    try {
+                        port = Integer.parseInt(arg);
+                    } catch (NumberFormatException e) {
+                        System.out.println("Неверный порт, используем порт по умолчанию: " + port);
+                    }
                 }
             }
 
-            ServerCore server = new ServerCore(port, gameManager, authManager);
-            System.out.println("Сервер запущен на порту " + port);
+            MctsEngine mcts = new MctsEngine(aiTime, aiPlayouts, aiThreads, aiTreeNodes, aiTotalNodes);
+            AIPlayer aiPlayer = new AIPlayer(mcts);
+            // таблицы решенных позиций строит server.TablebaseGenerator
+            aiPlayer.setTablebases(Tablebase.loadAll(Tablebase.DIR));
+            GameManager gameManager = new GameManager(aiPlayer, new AIExecutor(), new GameIdGenerator(nodeId));
+            System.out.println("Бюджет хода ИИ на больших полях: " + aiTime + " мс, до " + aiPlayouts +
+                    " доигрываний, потоков " + mcts.getThreads() + "; узлов в дереве игры до " +
+                    mcts.getMaxTreeNodes() + ", во всех деревьях до " + mcts.getMaxTotalNodes());
+
+            // Брошенная недоигранная игра перед вытеснением сохраняется за первым
+            // игроком. Копия снимается в очереди игры, запись - в потоке ввода-вывода.
+            gameManager.setEvictionTimeouts(finishedTtl * 1000, idleTtl * 1000);
+            gameManager.setEvictionListener(session -> {
+                if (session.isActive() && session.getGameState().getStoneCount() > 0) {
+                    byte[] data = GameStorage.snapshot(session, session.getPlayer1());
+                    gameManager.runStorage(() -> {
+                        new GameStorage().saveSnapshot(session.getGameId(), data);
+                        return null;
+                    }).whenComplete((ignored, error) -> {
+                        if (error == null) {
+                            Log.info("Брошенная игра сохранена: " + session.getGameId());
+                        } else {
+                            Log.error("Не удалось сохранить брошенную игру " + session.getGameId() + ": " +
+                                    error.getMessage(), error);
+                        }
+                    });
+                }
+            });
+            System.out.println("Номер узла для ID игр: " + nodeId);
+            System.out.println("Вытеснение игр: завершенных через " + finishedTtl + " с, брошенных через " +
+                    idleTtl + " с");
+
+            try {
+                gameManager.setHibernation(new HibernationStore(), hibernateAfter * 1000);
+                System.out.println("Гибернация игр: на диск через " + hibernateAfter + " с без обращений");
+            } catch (IOException e) {
+                System.out.println("Гибернация игр выключена, нет каталога: " + e.getMessage());
+            }
+
+            ServerCore server = new ServerCore(port, gameManager, authManager, mode);
+            System.out.println("Сервер запущен на порту " + port + ", режим соединений: " + mode);
             server.start();
 
         } catch (Exception e) {
@@ -42,4 +148,17 @@ public class MainServer {
             System.exit(1);
         }
     }
+
+    private static long parseBudget(String value, long defaultValue) {
+        try {
+            long budget = Long.parseLong(value);
+            if (budget > 0 && budget <= Integer.MAX_VALUE) {
+                return budget;
+            }
+        } catch (NumberFormatException e) {
+            // сообщение ниже
+        }
+        System.out.println("Неверный бюджет ИИ: " + value + ", используем " + defaultValue);
+        return defaultValue;
+    }
 }
\ No newline at end of file
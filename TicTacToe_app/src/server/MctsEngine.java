@@ -0,0 +1,787 @@
+//Поиск хода методом Монте-Карло для больших полей
+
+
+package server;
+
+import shared.GameState;
+import shared.Move;
+
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Monte Carlo Tree Search (UCT) для полей, где полный перебор невозможен.
+// За ход выполняется столько случайных доигрываний, сколько помещается
+// в бюджет времени или числа доигрываний; выбирается самый посещаемый ход.
+// Дерево сохраняется в Tree между ходами одной игры: после хода соперника
+// поиск продолжается с соответствующего поддерева. На многоядерном сервере
+// поиск можно распараллелить по корню на несколько потоков.
+// Пока соперник думает, дерево можно достраивать (ponder): если соперник
+// сделает уже изученный ход, ответ берется из дерева без нового поиска.
+//
+// Деревья живут между ходами, поэтому память ограничена отдельно от бюджета
+// доигрываний: узлов в дереве одной игры не больше maxTreeNodes, во всех
+// деревьях сервера - не больше maxTotalNodes. Без разрешения на новый узел
+// доигрывание идет от листа, и дерево просто перестает расти. Деревья игр,
+// где человек давно не ходил, освобождаются.
+public class MctsEngine {
+    public static final long DEFAULT_TIME_MILLIS = 200;
+    public static final int DEFAULT_MAX_PLAYOUTS = 200_000;
+    // Узел с детьми и списком ходов занимает порядка 100-150 байт:
+    // до ~15 МБ на игру и ~300 МБ на все игры
+    public static final int DEFAULT_MAX_TREE_NODES = 100_000;
+    public static final long DEFAULT_MAX_TOTAL_NODES = 2_000_000;
+    // предел размышления в одной позиции на время соперника
+    public static final long PONDER_MAX_MILLIS = 5_000;
+    // Размышление идет порциями: после порции задача встает в конец очереди,
+    // и поток размышлений делится между играми по кругу
+    public static final long PONDER_SLICE_MILLIS = 100;
+    // дерево игры, где человек не ходил дольше, освобождается
+    public static final long TREE_IDLE_MILLIS = 60_000;
+    private static final long SWEEP_INTERVAL_NANOS = 1_000_000_000L;
+
+    private static final double EXPLORATION = Math.sqrt(2);
+    // ходы рассматриваются только рядом с уже поставленными знаками
+    private static final int NEIGHBOURHOOD = 2;
+
+    private static final byte EMPTY = 0;
+    private static final byte X = 1;
+    private static final byte O = 2;
+    private static final byte DRAW = 3;
+
+    private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+
+    private final long timeBudgetNanos;
+    private final int maxPlayouts;
+    private final int threads;
+    // Потоки параллельного поиска: каждый строит свое дерево от общего корня,
+    // при выборе хода посещения корневых ходов суммируются.
+    // null - поиск в вызывающем потоке.
+    private final ForkJoinPool pool;
+
+    private final int maxTreeNodes;
+    private final long maxTotalNodes;
+    // узлов во всех деревьях и деревья, в которых есть узлы
+    private final AtomicLong totalNodes = new AtomicLong();
+    private final Set<Tree> liveTrees = ConcurrentHashMap.newKeySet();
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+
+    // общая статистика для оценки мощности ИИ
+    private final AtomicLong totalPlayouts = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    public MctsEngine() {
+        this(DEFAULT_TIME_MILLIS, DEFAULT_MAX_PLAYOUTS);
+    }
+
+    public MctsEngine(long timeMillis, int maxPlayouts) {
+        this(timeMillis, maxPlayouts, 1);
+    }
+
+    public MctsEngine(long timeMillis, int maxPlayouts, int threads) {
+        this(timeMillis, maxPlayouts, threads, DEFAULT_MAX_TREE_NODES, DEFAULT_MAX_TOTAL_NODES);
+    }
+
+    public MctsEngine(long timeMillis, int maxPlayouts, int threads, int maxTreeNodes, long maxTotalNodes) {
+        if (timeMillis <= 0 || maxPlayouts <= 0 || threads <= 0 || maxTreeNodes <= 0 || maxTotalNodes <= 0) {
+            throw new IllegalArgumentException("Бюджет поиска должен быть положительным");
+        }
+        this.timeBudgetNanos = timeMillis * 1_000_000;
+        this.maxPlayouts = maxPlayouts;
+        this.maxTreeNodes = maxTreeNodes;
+        this.maxTotalNodes = maxTotalNodes;
+        this.threads = Math.min(threads, maxThreads());
+        if (this.threads < threads) {
+            Log.info("Потоков поиска ИИ: " + this.threads + " вместо " + threads +
+                    " (остальные ядра - событийным циклам)");
+        }
+        this.pool = this.threads > 1 ? new ForkJoinPool(this.threads, MctsEngine::newWorkerThread, null, false) : null;
+    }
+
+    // Потоки поиска не должны отнимать ядра у потоков соединений
+    public static int maxThreads() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() - ServerCore.eventLoopCount());
+    }
+
+    private static ForkJoinWorkerThread newWorkerThread(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("ai-search-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    public long getTimeMillis() {
+        return timeBudgetNanos / 1_000_000;
+    }
+
+    public int getMaxPlayouts() {
+        return maxPlayouts;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getMaxTreeNodes() {
+        return maxTreeNodes;
+    }
+
+    public long getMaxTotalNodes() {
+        return maxTotalNodes;
+    }
+
+    // узлов сейчас во всех деревьях
+    public long getTotalNodes() {
+        return totalNodes.get();
+    }
+
+    // доигрываний в секунду за все время работы сервера
+    public long getPlayoutsPerSecond() {
+        long nanos = totalNanos.get();
+        return nanos == 0 ? 0 : totalPlayouts.get() * 1_000_000_000L / nanos;
+    }
+
+    // Дерево поиска одной игры (по корню на каждый поток). Поиск хода
+    // и размышление работают с деревом под его блокировкой; освобождение
+    // узлов чужого дерева (см. sweep) только пробует ее взять.
+    public static class Tree {
+        private final ReentrantLock lock = new ReentrantLock();
+        private Node[] roots;
+        // узлов в roots
+        private int nodes;
+        // позиция, которой соответствуют roots (после последнего хода ИИ)
+        private byte[] cells;
+        private int rows;
+        private int cols;
+        private int winLength;
+        // доигрываний в последнем поиске хода - мерило достаточного поддерева
+        private int lastPlayouts;
+        // начало последнего поиска хода: по нему видно, что игрок ушел
+        private volatile long lastSearch = System.nanoTime();
+        // номер позиции, растет с каждым поиском хода: размышление о прошлой позиции не нужно
+        private volatile int generation;
+        // время размышления в текущей позиции
+        private long ponderNanos;
+        private volatile boolean stopPonder;
+        // дерево больше не нужно игре; узлы освобождает тот, кто держит блокировку
+        private volatile boolean released;
+
+        // Останавливает размышление: соперник походил или ушел из игры.
+        // Новое размышление возможно только после следующего хода ИИ.
+        public void stopPondering() {
+            stopPonder = true;
+        }
+
+        public int getGeneration() {
+            return generation;
+        }
+    }
+
+    public Move search(GameState state) {
+        return search(state, new Tree());
+    }
+
+    public Move search(GameState state, Tree tree) {
+        // размышление видит флаг между доигрываниями и сразу отдает дерево
+        tree.stopPondering();
+        tree.lock.lock();
+        try {
+            return searchTree(state, tree);
+        } finally {
+            unlock(tree);
+        }
+    }
+
+    // Дерево больше не нужно (игра окончена, уснула или удалена): узлы
+    // освобождаются сразу или, если дерево занято, в конце текущего поиска.
+    public void release(Tree tree) {
+        tree.released = true;
+        tree.stopPondering();
+        tryFree(tree);
+    }
+
+    private void unlock(Tree tree) {
+        tree.lock.unlock();
+        // release() мог не взять блокировку, пока она была занята
+        if (tree.released) {
+            tryFree(tree);
+        }
+    }
+
+    // освобождает узлы дерева, если оно сейчас не занято поиском или размышлением
+    private boolean tryFree(Tree tree) {
+        if (!tree.lock.tryLock()) {
+            return false;
+        }
+        try {
+            free(tree);
+        } finally {
+            tree.lock.unlock();
+        }
+        return true;
+    }
+
+    // под блокировкой дерева
+    private void free(Tree tree) {
+        totalNodes.addAndGet(-tree.nodes);
+        tree.nodes = 0;
+        tree.roots = null;
+        tree.cells = null;
+        tree.lastPlayouts = 0;
+        liveTrees.remove(tree);
+    }
+
+    // Не чаще раза в секунду: освобождает деревья игр, где человек не ходил
+    // дольше TREE_IDLE_MILLIS, а если занято больше 3/4 общего предела - и
+    // деревья, к которым дольше всего не обращались, пока не останется половина.
+    // Занятые деревья и дерево current (его держит вызывающий) пропускаются.
+    private void sweep(Tree current) {
+        long now = System.nanoTime();
+        long last = lastSweep.get();
+        if (now - last < SWEEP_INTERVAL_NANOS || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        long idleSince = now - TREE_IDLE_MILLIS * 1_000_000;
+        int freed = 0;
+        List<Map.Entry<Long, Tree>> active = new ArrayList<>();
+        for (Tree tree : liveTrees) {
+            if (tree == current) {
+                continue;
+            }
+            long lastSearch = tree.lastSearch;
+            if (lastSearch - idleSince < 0) {
+                freed += tryFree(tree) ? 1 : 0;
+            } else {
+                active.add(new AbstractMap.SimpleEntry<>(lastSearch, tree));
+            }
+        }
+        if (totalNodes.get() > maxTotalNodes / 4 * 3) {
+            active.sort(Map.Entry.comparingByKey());
+            for (Map.Entry<Long, Tree> entry : active) {
+                if (totalNodes.get() <= maxTotalNodes / 2) {
+                    break;
+                }
+                freed += tryFree(entry.getValue()) ? 1 : 0;
+            }
+        }
+        if (freed > 0 && Log.isDebugEnabled()) {
+            Log.debug("MCTS: освобождено деревьев " + freed + ", узлов осталось " + totalNodes.get() +
+                    " в " + liveTrees.size() + " деревьях");
+        }
+    }
+
+    private Move searchTree(GameState state, Tree tree) {
+        long start = System.nanoTime();
+        sweep(tree);
+        tree.lastSearch = start;
+        Board board = Board.from(state);
+        if (board.emptyCount == 0) {
+            return null;
+        }
+        byte me = state.getCurrentPlayer() == 'O' ? O : X;
+        byte opponent = other(me);
+
+        // корни из прошлого поиска, если с тех пор соперник сделал один ход
+        int opponentMove = tree.roots != null && tree.roots.length == threads ? opponentMove(tree, board, opponent) : -1;
+        Node[] roots = new Node[threads];
+        int reusedVisits = 0;
+        for (int i = 0; i < threads; i++) {
+            roots[i] = opponentMove < 0 ? null : child(tree.roots[i], opponentMove);
+            if (roots[i] == null) {
+                roots[i] = new Node(-1, null, opponent, EMPTY);
+            }
+            reusedVisits += roots[i].visits;
+        }
+        // остальное старое дерево уходит сборщику мусора
+        int kept = countNodes(roots);
+        totalNodes.addAndGet(kept - tree.nodes);
+        tree.nodes = kept;
+        int room = Math.max(0, maxTreeNodes - kept);
+
+        long deadline = start + timeBudgetNanos;
+        int share = (maxPlayouts + threads - 1) / threads;
+        int playouts = 0;
+        // соперник сделал ход, над которым ИИ уже думал не меньше обычного поиска
+        boolean ponderHit = tree.lastPlayouts > 0 && reusedVisits >= tree.lastPlayouts;
+        if (ponderHit) {
+            Log.debug("MCTS: ход из размышлений, поддерево " + reusedVisits + " доигрываний");
+        } else if (pool == null) {
+            Growth growth = new Growth(room);
+            playouts = runPlayouts(roots[0], board, deadline, share, null, growth);
+            kept += growth.created;
+        } else {
+            RootWorker[] workers = new RootWorker[threads];
+            for (int i = 0; i < threads; i++) {
+                workers[i] = new RootWorker(roots[i], board, deadline, share, new Growth(room / threads));
+            }
+            pool.invoke(new RootSearch(workers));
+            for (RootWorker worker : workers) {
+                playouts += worker.playouts;
+                kept += worker.growth.created;
+            }
+        }
+
+        // посещения корневых ходов по всем деревьям
+        int[] visits = new int[board.cells.length];
+        int cell = -1;
+        for (Node root : roots) {
+            for (Node child : root.children) {
+                visits[child.move] += child.visits;
+                if (cell < 0 || visits[child.move] > visits[cell]) {
+                    cell = child.move;
+                }
+            }
+        }
+        if (cell < 0) {
+            // бюджет закончился до первого раскрытия - любой допустимый ход
+            cell = board.candidates()[0];
+        }
+
+        // поддеревья выбранного хода - корни для следующего поиска
+        board.play(cell, me);
+        byte result = board.winsAt(cell) ? me : board.emptyCount == 0 ? DRAW : EMPTY;
+        tree.roots = new Node[threads];
+        for (int i = 0; i < threads; i++) {
+            tree.roots[i] = child(roots[i], cell);
+            if (tree.roots[i] == null) {
+                tree.roots[i] = new Node(cell, null, me, result);
+            }
+        }
+        int retained = countNodes(tree.roots);
+        totalNodes.addAndGet(retained - kept);
+        tree.nodes = retained;
+        liveTrees.add(tree);
+        tree.cells = board.cells.clone();
+        tree.rows = board.rows;
+        tree.cols = board.cols;
+        tree.winLength = board.winLength;
+        if (!ponderHit) {
+            tree.lastPlayouts = playouts;
+        }
+        tree.generation++;
+        tree.ponderNanos = 0;
+        tree.stopPonder = false;
+
+        long elapsed = System.nanoTime() - start;
+        totalPlayouts.addAndGet(playouts);
+        totalNanos.addAndGet(elapsed);
+        Move move = new Move(cell / board.cols, cell % board.cols);
+        if (Log.isDebugEnabled()) {
+            Log.debug("MCTS: ход [" + move.getRow() + "," + move.getCol() + "], доигрываний " + playouts +
+                    " (" + (elapsed == 0 ? 0 : playouts * 1_000_000_000L / elapsed) + "/с, потоков " + threads +
+                    "), из прошлого дерева " + reusedVisits + ", время " + elapsed / 1_000_000 + " мс");
+        }
+        return move;
+    }
+
+    // Порция размышления на время соперника: доигрывания в позиции после хода
+    // ИИ в течение PONDER_SLICE_MILLIS. Вызывается в фоновом потоке с низким
+    // приоритетом; generation - номер позиции, о которой просили подумать.
+    // true - стоит продолжить следующей порцией: соперник не походил, позиция
+    // та же, не исчерпаны время PONDER_MAX_MILLIS и предел узлов дерева.
+    public boolean ponder(Tree tree, int generation) {
+        if (tree.stopPonder || tree.generation != generation) {
+            return false;
+        }
+        // идет поиск хода - размышлять уже не о чем
+        if (!tree.lock.tryLock()) {
+            return false;
+        }
+        try {
+            if (tree.stopPonder || tree.generation != generation || tree.roots == null ||
+                    tree.roots[0].result != EMPTY || tree.ponderNanos >= PONDER_MAX_MILLIS * 1_000_000) {
+                return false;
+            }
+            sweep(tree);
+            long start = System.nanoTime();
+            Board board = Board.from(tree.cells, tree.rows, tree.cols, tree.winLength);
+            long deadline = start + Math.min(PONDER_SLICE_MILLIS * 1_000_000,
+                    PONDER_MAX_MILLIS * 1_000_000 - tree.ponderNanos);
+            Growth growth = new Growth(maxTreeNodes - tree.nodes);
+            int playouts = 0;
+            // корни потоков растут по очереди небольшими порциями
+            int index = 0;
+            while (!tree.stopPonder && growth.canGrow() && System.nanoTime() < deadline) {
+                playouts += runPlayouts(tree.roots[index], board, deadline, 1000, tree, growth);
+                index = (index + 1) % tree.roots.length;
+            }
+            tree.nodes += growth.created;
+            long elapsed = System.nanoTime() - start;
+            tree.ponderNanos += elapsed;
+            totalPlayouts.addAndGet(playouts);
+            totalNanos.addAndGet(elapsed);
+            if (Log.isDebugEnabled()) {
+                Log.debug("MCTS: размышление " + playouts + " доигрываний за " + elapsed / 1_000_000 +
+                        " мс, узлов в дереве " + tree.nodes + (tree.stopPonder ? ", прервано ходом соперника" : ""));
+            }
+            return !tree.stopPonder && growth.canGrow() && tree.ponderNanos < PONDER_MAX_MILLIS * 1_000_000;
+        } finally {
+            unlock(tree);
+        }
+    }
+
+    // Разрешение на новые узлы для одного корня: доля предела дерева игры
+    // и общий предел сервера. Один экземпляр используется одним потоком.
+    private final class Growth {
+        private int remaining;
+        int created;
+
+        Growth(int remaining) {
+            this.remaining = remaining;
+        }
+
+        boolean canGrow() {
+            return remaining > 0;
+        }
+
+        // узел сверх пределов (ход из корня); учитывается, но не запрещается
+        boolean grow() {
+            totalNodes.incrementAndGet();
+            remaining--;
+            created++;
+            return true;
+        }
+
+        boolean tryGrow() {
+            if (remaining <= 0) {
+                return false;
+            }
+            if (totalNodes.incrementAndGet() > maxTotalNodes) {
+                totalNodes.decrementAndGet();
+                remaining = 0;
+                return false;
+            }
+            remaining--;
+            created++;
+            return true;
+        }
+    }
+
+    // узлов в поддеревьях корней
+    private static int countNodes(Node[] roots) {
+        int count = 0;
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        for (Node root : roots) {
+            stack.push(root);
+        }
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            count++;
+            for (Node child : node.children) {
+                stack.push(child);
+            }
+        }
+        return count;
+    }
+
+    // Доигрывания от корня до исчерпания бюджета; доска board не изменяется,
+    // поэтому потоки работают с одной и той же доской.
+    // stop - дерево размышления, которое нужно остановить по флагу (или null);
+    // growth разрешает новые узлы, без разрешения доигрывание идет от листа.
+    private static int runPlayouts(Node root, Board board, long deadline, int maxPlayouts, Tree stop,
+                                   Growth growth) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int playouts = 0;
+        Board scratch = new Board(board.rows, board.cols, board.winLength);
+        while (playouts < maxPlayouts && System.nanoTime() < deadline && (stop == null || !stop.stopPonder)) {
+            scratch.copyFrom(board);
+            Node node = root;
+
+            // выбор: спуск по UCT, пока узел полностью раскрыт (или дереву больше нельзя расти)
+            while (node.result == EMPTY && node.untried != null && !node.children.isEmpty() &&
+                    (node.untriedCount == 0 || node != root && !growth.canGrow())) {
+                node = node.select();
+                scratch.play(node.move, node.player);
+            }
+
+            // раскрытие одного нового хода
+            if (node.result == EMPTY) {
+                if (node.untried == null) {
+                    node.untried = scratch.candidates();
+                    node.untriedCount = node.untried.length;
+                }
+                // ходы из корня раскрываются всегда: без них не из чего выбрать ход
+                if (node.untriedCount > 0 && (node == root ? growth.grow() : growth.tryGrow())) {
+                    int index = random.nextInt(node.untriedCount);
+                    int cell = node.untried[index];
+                    node.untried[index] = node.untried[--node.untriedCount];
+
+                    byte player = other(node.player);
+                    scratch.play(cell, player);
+                    byte result = scratch.winsAt(cell) ? player : scratch.emptyCount == 0 ? DRAW : EMPTY;
+                    Node child = new Node(cell, node, player, result);
+                    node.children.add(child);
+                    node = child;
+                }
+            }
+
+            // случайное доигрывание и обратное распространение результата
+            byte result = node.result != EMPTY ? node.result : scratch.playout(other(node.player), random);
+            for (Node n = node; n != null; n = n.parent) {
+                n.visits++;
+                if (result == n.player) {
+                    n.wins += 1;
+                } else if (result == DRAW) {
+                    n.wins += 0.5;
+                }
+            }
+            playouts++;
+        }
+        return playouts;
+    }
+
+    // клетка единственного хода соперника с прошлого поиска или -1
+    private static int opponentMove(Tree tree, Board board, byte opponent) {
+        if (tree.cells == null || tree.cells.length != board.cells.length) {
+            return -1;
+        }
+        int changed = -1;
+        for (int i = 0; i < board.cells.length; i++) {
+            if (board.cells[i] != tree.cells[i]) {
+                if (changed >= 0 || tree.cells[i] != EMPTY || board.cells[i] != opponent) {
+                    return -1;
+                }
+                changed = i;
+            }
+        }
+        return changed;
+    }
+
+    // поддерево хода move, отрезанное от родителя, или null
+    private static Node child(Node node, int move) {
+        if (node == null) {
+            return null;
+        }
+        for (Node child : node.children) {
+            if (child.move == move) {
+                child.parent = null;
+                return child;
+            }
+        }
+        return null;
+    }
+
+    // поиск от одного корня в потоке пула
+    // задачи пула никогда не сериализуются
+    @SuppressWarnings("serial")
+    private static class RootWorker extends RecursiveAction {
+        private final Node root;
+        private final Board board;
+        private final long deadline;
+        private final int maxPlayouts;
+        final Growth growth;
+        int playouts;
+
+        RootWorker(Node root, Board board, long deadline, int maxPlayouts, Growth growth) {
+            this.root = root;
+            this.board = board;
+            this.deadline = deadline;
+            this.maxPlayouts = maxPlayouts;
+            this.growth = growth;
+        }
+
+        @Override
+        protected void compute() {
+            playouts = runPlayouts(root, board, deadline, maxPlayouts, null, growth);
+        }
+    }
+
+    // разделение поиска по корням: все деревья строятся одновременно
+    @SuppressWarnings("serial")
+    private static class RootSearch extends RecursiveAction {
+        private final RootWorker[] workers;
+
+        RootSearch(RootWorker[] workers) {
+            this.workers = workers;
+        }
+
+        @Override
+        protected void compute() {
+            invokeAll(workers);
+        }
+    }
+
+    private static byte other(byte player) {
+        return player == X ? O : X;
+    }
+
+    private static class Node {
+        final int move;
+        final byte player;   // кто сделал ход move
+        final byte result;   // исход, если позиция конечная
+        Node parent;
+        final List<Node> children = new ArrayList<>();
+        int[] untried;
+        int untriedCount;
+        int visits;
+        double wins;         // с точки зрения player
+
+        Node(int move, Node parent, byte player, byte result) {
+            this.move = move;
+            this.parent = parent;
+            this.player = player;
+            this.result = result;
+        }
+
+        Node select() {
+            double logVisits = Math.log(visits);
+            Node best = null;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (Node child : children) {
+                double value = child.wins / child.visits + EXPLORATION * Math.sqrt(logVisits / child.visits);
+                if (value > bestValue) {
+                    bestValue = value;
+                    best = child;
+                }
+            }
+            return best;
+        }
+    }
+
+    // Доска для поиска: клетки и список пустых клеток для выбора случайного хода за O(1)
+    private static class Board {
+        final int rows;
+        final int cols;
+        final int winLength;
+        final byte[] cells;
+        final int[] empty;
+        final int[] emptyIndex;
+        int emptyCount;
+
+        Board(int rows, int cols, int winLength) {
+            this.rows = rows;
+            this.cols = cols;
+            this.winLength = winLength;
+            this.cells = new byte[rows * cols];
+            this.empty = new int[rows * cols];
+            this.emptyIndex = new int[rows * cols];
+        }
+
+        static Board from(byte[] cells, int rows, int cols, int winLength) {
+            Board board = new Board(rows, cols, winLength);
+            for (int cell = 0; cell < cells.length; cell++) {
+                board.cells[cell] = cells[cell];
+                if (cells[cell] == EMPTY) {
+                    board.emptyIndex[cell] = board.emptyCount;
+                    board.empty[board.emptyCount++] = cell;
+                }
+            }
+            return board;
+        }
+
+        static Board from(GameState state) {
+            Board board = new Board(state.getRows(), state.getCols(), state.getWinLength());
+            for (int cell = 0; cell < board.cells.length; cell++) {
+                String symbol = state.getCell(cell / board.cols, cell % board.cols);
+                if ("X".equals(symbol)) {
+                    board.cells[cell] = X;
+                } else if ("O".equals(symbol)) {
+                    board.cells[cell] = O;
+                } else {
+                    board.emptyIndex[cell] = board.emptyCount;
+                    board.empty[board.emptyCount++] = cell;
+                }
+            }
+            return board;
+        }
+
+        void copyFrom(Board other) {
+            System.arraycopy(other.cells, 0, cells, 0, cells.length);
+            System.arraycopy(other.empty, 0, empty, 0, other.emptyCount);
+            System.arraycopy(other.emptyIndex, 0, emptyIndex, 0, emptyIndex.length);
+            emptyCount = other.emptyCount;
+        }
+
+        void play(int cell, byte player) {
+            cells[cell] = player;
+            // последнюю пустую клетку ставим на место занятой
+            int index = emptyIndex[cell];
+            int last = empty[--emptyCount];
+            empty[index] = last;
+            emptyIndex[last] = index;
+        }
+
+        // случайная партия до конца; возвращает победителя или DRAW
+        byte playout(byte player, ThreadLocalRandom random) {
+            while (emptyCount > 0) {
+                int cell = empty[random.nextInt(emptyCount)];
+                play(cell, player);
+                if (winsAt(cell)) {
+                    return player;
+                }
+                player = other(player);
+            }
+            return DRAW;
+        }
+
+        // победа по линиям через клетку
+        boolean winsAt(int cell) {
+            byte player = cells[cell];
+            int row = cell / cols;
+            int col = cell % cols;
+            for (int[] direction : DIRECTIONS) {
+                int length = 1 + count(row, col, direction[0], direction[1], player) +
+                        count(row, col, -direction[0], -direction[1], player);
+                if (length >= winLength) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int count(int row, int col, int dr, int dc, byte player) {
+            int length = 0;
+            int r = row + dr;
+            int c = col + dc;
+            while (r >= 0 && r < rows && c >= 0 && c < cols && cells[r * cols + c] == player) {
+                length++;
+                r += dr;
+                c += dc;
+            }
+            return length;
+        }
+
+        // пустые клетки рядом со знаками; на пустой доске - центр
+        int[] candidates() {
+            if (emptyCount == cells.length) {
+                return new int[] {(rows / 2) * cols + cols / 2};
+            }
+            int[] result = new int[emptyCount];
+            int count = 0;
+            for (int i = 0; i < emptyCount; i++) {
+                int cell = empty[i];
+                if (hasNeighbour(cell / cols, cell % cols)) {
+                    result[count++] = cell;
+                }
+            }
+            if (count == 0) {
+                System.arraycopy(empty, 0, result, 0, emptyCount);
+                return result;
+            }
+            int[] trimmed = new int[count];
+            System.arraycopy(result, 0, trimmed, 0, count);
+            return trimmed;
+        }
+
+        private boolean hasNeighbour(int row, int col) {
+            for (int r = Math.max(0, row - NEIGHBOURHOOD); r <= Math.min(rows - 1, row + NEIGHBOURHOOD); r++) {
+                for (int c = Math.max(0, col - NEIGHBOURHOOD); c <= Math.min(cols - 1, col + NEIGHBOURHOOD); c++) {
+                    if (cells[r * cols + c] != EMPTY) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+}
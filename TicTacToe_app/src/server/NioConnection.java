@@ -0,0 +1,200 @@
+//Неблокирующее соединение с клиентом
+
+
+package server;
+
+import shared.FrameDecoder;
+import shared.FrameEncoder;
+import shared.GameMessage;
+import shared.MessageCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Состояние одного клиента внутри EventLoop: буфер чтения для сборки кадров
+// и очередь исходящих кадров. Чтение и запись в канал выполняются только
+// потоком событийного цикла, send() можно вызывать из любого потока.
+public class NioConnection implements ClientConnection {
+    private static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+
+    private final SocketChannel channel;
+    private final EventLoop eventLoop;
+    private final MessageCodec codec = new ServerCodec();
+    private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+
+    private SelectionKey key;
+    private ConnectionHandler handler;
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    // первые байты проверены: клиент шлет кадры
+    private boolean framed;
+    private volatile boolean closed;
+
+    NioConnection(SocketChannel channel, EventLoop eventLoop) {
+        this.channel = channel;
+        this.eventLoop = eventLoop;
+    }
+
+    void attach(SelectionKey key, ConnectionHandler handler) {
+        this.key = key;
+        this.handler = handler;
+    }
+
+    @Override
+    public void send(GameMessage message) {
+        if (closed) {
+            return;
+        }
+
+        // кодирование и постановка в очередь должны идти в одном порядке:
+        // каждый кадр может ссылаться на объекты из предыдущих
+        synchronized (codec) {
+            try {
+                outbound.add(ByteBuffer.wrap(codec.encode(message)));
+            } catch (IOException e) {
+                Log.warn("Ошибка кодирования ответа: " + e.getMessage());
+                return;
+            }
+        }
+
+        if (eventLoop.inEventLoop()) {
+            flush();
+        } else {
+            eventLoop.requestFlush(this);
+        }
+    }
+
+    void onReadable() {
+        try {
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                Log.info("Клиент отключился корректно");
+                close();
+                return;
+            }
+
+            readBuffer.flip();
+            if (!framed) {
+                if (readBuffer.remaining() < 2) {
+                    readBuffer.compact();
+                    return;
+                }
+                if (FrameDecoder.isObjectStream(readBuffer)) {
+                    handOffObjectStream();
+                    return;
+                }
+                framed = true;
+            }
+            while (readBuffer.remaining() >= FrameEncoder.HEADER_SIZE) {
+                int length = readBuffer.getInt(readBuffer.position());
+                FrameDecoder.checkLength(length);
+
+                if (readBuffer.remaining() < FrameEncoder.HEADER_SIZE + length) {
+                    ensureCapacity(FrameEncoder.HEADER_SIZE + length);
+                    break;
+                }
+
+                byte[] payload = new byte[length];
+                readBuffer.position(readBuffer.position() + FrameEncoder.HEADER_SIZE);
+                readBuffer.get(payload);
+
+                GameMessage message = codec.decode(payload);
+                handler.handleMessage(message);
+                if (closed) {
+                    return;
+                }
+            }
+            readBuffer.compact();
+        } catch (IOException | ClassNotFoundException e) {
+            Log.warn("Ошибка соединения: " + e.getMessage());
+            close();
+        } catch (RuntimeException e) {
+            Log.error("Ошибка обработки сообщения: " + e.getMessage(), e);
+            close();
+        }
+    }
+
+    // Старый клиент пишет сериализацию Java без кадров, а ее нельзя читать
+    // по частям без блокировки. Такое соединение уходит из цикла в свой
+    // виртуальный поток с блокирующим чтением; уже прочитанные байты идут с ним.
+    private void handOffObjectStream() {
+        byte[] prefix = new byte[readBuffer.remaining()];
+        readBuffer.get(prefix);
+        // цикл больше не читает и не пишет в канал, но и не закрывает его
+        closed = true;
+
+        eventLoop.handOff(key, () -> {
+            try {
+                channel.configureBlocking(true);
+            } catch (IOException e) {
+                Log.warn("Не удалось передать соединение старого клиента: " + e.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // ошибка игнорируется при закрытии
+                }
+                return;
+            }
+            Thread.ofVirtual().name("object-stream-client").start(() -> handler.runObjectStream(channel.socket(), prefix));
+        });
+    }
+
+    // увеличение буфера под кадр, который не помещается целиком
+    private void ensureCapacity(int frameSize) {
+        if (readBuffer.capacity() >= frameSize) {
+            return;
+        }
+        ByteBuffer bigger = ByteBuffer.allocate(frameSize);
+        bigger.put(readBuffer);
+        bigger.flip();
+        readBuffer = bigger;
+    }
+
+    // запись накопленных кадров; вызывается только в потоке цикла
+    void flush() {
+        if (closed) {
+            return;
+        }
+
+        try {
+            ByteBuffer head;
+            while ((head = outbound.peek()) != null) {
+                channel.write(head);
+                if (head.hasRemaining()) {
+                    // сокет переполнен - дописываем, когда станет доступен для записи
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                outbound.poll();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        } catch (IOException e) {
+            Log.warn("Ошибка отправки: " + e.getMessage());
+            close();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        outbound.clear();
+
+        if (key != null) {
+            key.cancel();
+        }
+        if (handler != null) {
+            handler.onDisconnect();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // ошибка игнорируется при закрытии
+        }
+    }
+}
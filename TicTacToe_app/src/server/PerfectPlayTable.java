@@ -0,0 +1,120 @@
+//Таблица идеальной игры для поля 3x3
+
+
+package server;
+
+import shared.GameState;
+
+// Лучший ход и теоретический исход для каждой позиции 3x3, посчитанные один раз
+// при запуске сервера. Позиция задается с точки зрения ходящего: клетки
+// ходящего (me) и соперника (opponent), поэтому таблица не зависит от того,
+// за кого играет ИИ и кто ходил первым.
+//
+// Индекс - позиция в троичной записи (0 - пусто, 1 - me, 2 - opponent),
+// всего 3^9 = 19683 записей по одному байту. Перевод масок в индекс - два
+// обращения к таблице TERNARY, поиск не создает объектов.
+public class PerfectPlayTable {
+    // исход для ходящего
+    public static final int DRAW = 0;
+    public static final int WIN = 1;
+    public static final int LOSS = 2;
+    // позиция уже закончена или невозможна
+    public static final int TERMINAL = 3;
+
+    public static final int NO_MOVE = 15;
+
+    private static final int POSITIONS = 19683;
+    private static final int WIN_SCORE = 16;
+
+    // при равных оценках предпочитается центр, затем углы
+    private static final int[] MOVE_ORDER = {4, 0, 2, 6, 8, 1, 3, 5, 7};
+
+    // маска клеток -> сумма 3^i по установленным битам
+    private static final int[] TERNARY = new int[1 << GameState.CELLS];
+
+    // запись: биты 0-3 - лучший ход, биты 4-5 - исход
+    private static final byte[] TABLE = new byte[POSITIONS];
+
+    static {
+        long start = System.nanoTime();
+        for (int mask = 0; mask < TERNARY.length; mask++) {
+            int value = 0;
+            for (int cell = GameState.CELLS - 1; cell >= 0; cell--) {
+                value = value * 3 + ((mask >>> cell) & 1);
+            }
+            TERNARY[mask] = value;
+        }
+
+        int[] scores = new int[POSITIONS];
+        boolean[] solved = new boolean[POSITIONS];
+        for (int me = 0; me <= GameState.FULL_MASK; me++) {
+            for (int opponent = 0; opponent <= GameState.FULL_MASK; opponent++) {
+                if ((me & opponent) == 0) {
+                    solve(me, opponent, scores, solved);
+                }
+            }
+        }
+        Log.info("Таблица идеальной игры построена: " + POSITIONS + " позиций, " +
+                (System.nanoTime() - start) / 1_000_000 + " мс");
+    }
+
+    private PerfectPlayTable() {
+    }
+
+    // вызывается при запуске сервера, чтобы таблица строилась до первой игры
+    public static void init() {
+    }
+
+    public static int index(int me, int opponent) {
+        return TERNARY[me] + 2 * TERNARY[opponent];
+    }
+
+    // лучший ход ходящего (номер клетки row * 3 + col) или NO_MOVE
+    public static int bestCell(int me, int opponent) {
+        return TABLE[index(me, opponent)] & 0xF;
+    }
+
+    // исход при идеальной игре обеих сторон: WIN, DRAW, LOSS или TERMINAL
+    public static int outcome(int me, int opponent) {
+        return (TABLE[index(me, opponent)] >>> 4) & 3;
+    }
+
+    // Полный перебор с запоминанием; оценка учитывает число камней, чтобы
+    // выбирать самую быструю победу и самое долгое сопротивление.
+    private static int solve(int me, int opponent, int[] scores, boolean[] solved) {
+        int index = index(me, opponent);
+        if (solved[index]) {
+            return scores[index];
+        }
+
+        int score;
+        int bestCell = NO_MOVE;
+        int empty = ~(me | opponent) & GameState.FULL_MASK;
+        if (GameState.findWinLine(opponent) != 0) {
+            score = -(WIN_SCORE - Integer.bitCount(me | opponent));
+        } else if (GameState.findWinLine(me) != 0) {
+            // ходящий уже выиграл - в настоящей игре такого не бывает
+            score = WIN_SCORE - Integer.bitCount(me | opponent);
+        } else if (empty == 0) {
+            score = 0;
+        } else {
+            score = -WIN_SCORE;
+            for (int cell : MOVE_ORDER) {
+                if ((empty & (1 << cell)) == 0) {
+                    continue;
+                }
+                int child = -solve(opponent, me | (1 << cell), scores, solved);
+                if (bestCell == NO_MOVE || child > score) {
+                    score = child;
+                    bestCell = cell;
+                }
+            }
+        }
+
+        int outcome = bestCell == NO_MOVE ? TERMINAL : score > 0 ? WIN : score < 0 ? LOSS : DRAW;
+        TABLE[index] = (byte) ((outcome << 4) | bestCell);
+        scores[index] = score;
+        solved[index] = true;
+        return score;
+    }
+}
@@ -0,0 +1,282 @@
+//Самоигра ИИ: турнир без сети для замера скорости и силы
+
+
+package server;
+
+import shared.GameState;
+import shared.Move;
+import shared.UltimateBoard;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Играет партии ИИ против ИИ прямо на GameState, без GameManager и сети,
+// во многих потоках сразу. Печатает партии и ходы в секунду, задержки
+// хода по перцентилям и таблицу результатов. Цвета меняются каждую партию.
+//
+// Запуск: java server.SelfPlay [--games=N] [--threads=N] [--board=7x7x4 | --board=ultimate]
+//         [--a=HARD:100] [--b=EASY] [--ai-playouts=N]
+// Движок задается уровнем AIPlayer.Difficulty и, для больших полей,
+// бюджетом поиска Монте-Карло в мс после двоеточия.
+public class SelfPlay {
+    private static final int X_WIN = 0;
+    private static final int DRAW = 1;
+    private static final int O_WIN = 2;
+
+    // движок: уровень ИИ и свой MctsEngine с бюджетом хода
+    private static class Engine {
+        final String name;
+        final AIPlayer.Difficulty difficulty;
+        final MctsEngine mcts;
+
+        Engine(String spec, int maxPlayouts) {
+            String[] parts = spec.split(":");
+            this.name = spec.toUpperCase(Locale.ROOT);
+            this.difficulty = AIPlayer.Difficulty.valueOf(parts[0].toUpperCase(Locale.ROOT));
+            long time = parts.length > 1 ? Long.parseLong(parts[1]) : MctsEngine.DEFAULT_TIME_MILLIS;
+            // партии и так идут параллельно - каждый поиск в одном потоке
+            this.mcts = new MctsEngine(time, maxPlayouts, 1);
+        }
+    }
+
+    // счетчики одного потока; складываются после прогона
+    private static class Stats {
+        final long[][] latencies = {new long[1024], new long[1024]};
+        final int[] latencyCount = new int[2];
+        // [движок][цвет: 0 - X, 1 - O][X_WIN, DRAW, O_WIN]
+        final int[][][] results = new int[2][2][3];
+        long moves;
+        int errors;
+
+        void addLatency(int engine, long nanos) {
+            if (latencyCount[engine] == latencies[engine].length) {
+                latencies[engine] = Arrays.copyOf(latencies[engine], latencies[engine].length * 2);
+            }
+            latencies[engine][latencyCount[engine]++] = nanos;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int games = 200;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int rows = 3;
+        int cols = 3;
+        int winLength = 3;
+        boolean ultimate = false;
+        String specA = "PERFECT";
+        String specB = "EASY";
+        int maxPlayouts = MctsEngine.DEFAULT_MAX_PLAYOUTS;
+
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--games=")) {
+                games = Integer.parseInt(value);
+            } else if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(value);
+            } else if (arg.equals("--board=ultimate")) {
+                ultimate = true;
+                rows = UltimateBoard.SIZE;
+                cols = UltimateBoard.SIZE;
+                winLength = GameState.SIZE;
+            } else if (arg.startsWith("--board=")) {
+                String[] size = value.split("x");
+                rows = Integer.parseInt(size[0]);
+                cols = Integer.parseInt(size[1]);
+                winLength = size.length > 2 ? Integer.parseInt(size[2]) : Math.min(5, Math.min(rows, cols));
+            } else if (arg.startsWith("--a=")) {
+                specA = value;
+            } else if (arg.startsWith("--b=")) {
+                specB = value;
+            } else if (arg.startsWith("--ai-playouts=")) {
+                maxPlayouts = Integer.parseInt(value);
+            } else {
+                System.out.println("Неизвестный аргумент: " + arg);
+                return;
+            }
+        }
+        if (!GameState.isValidSize(rows, cols, winLength)) {
+            System.out.println("Недопустимый размер поля: " + rows + "x" + cols + ", " + winLength + " в ряд");
+            return;
+        }
+
+        Engine[] engines = {new Engine(specA, maxPlayouts), new Engine(specB, maxPlayouts)};
+        PerfectPlayTable.init();
+        List<Tablebase> tablebases = Tablebase.loadAll(Tablebase.DIR);
+
+        PrintStream out = System.out;
+        out.println("Самоигра: " + games + " партий, поле " + (ultimate ? "ультимейт 9x9" :
+                rows + "x" + cols + ", " + winLength + " в ряд") + ", потоков " + threads);
+        out.println("A = " + engines[0].name + ", B = " + engines[1].name + " (цвета меняются каждую партию)");
+
+        // журнал каждого хода ИИ на время прогона отключается
+        Log.Level level = Log.getLevel();
+        Log.setLevel(Log.Level.WARN);
+        Stats[] stats = new Stats[threads];
+        long start = System.nanoTime();
+        try {
+            GameState board = ultimate ? GameState.ultimate() : new GameState(rows, cols, winLength);
+            stats = run(engines, tablebases, games, threads, board);
+        } finally {
+            Log.setLevel(level);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        report(out, engines, stats, games, elapsed);
+    }
+
+    // board - пустое поле, каждая партия играется на его копии
+    private static Stats[] run(Engine[] engines, List<Tablebase> tablebases, int games, int threads,
+                               GameState board) throws Exception {
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Stats>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                Stats stats = new Stats();
+                AIPlayer[] players = {new AIPlayer(engines[0].mcts), new AIPlayer(engines[1].mcts)};
+                for (AIPlayer player : players) {
+                    player.setTablebases(tablebases);
+                }
+                int game;
+                while ((game = next.getAndIncrement()) < games) {
+                    // в четных партиях A играет за X
+                    int engineX = game % 2;
+                    playGame(engines, players, engineX, board.copy(), stats);
+                }
+                return stats;
+            }));
+        }
+        Stats[] stats = new Stats[threads];
+        for (int t = 0; t < threads; t++) {
+            stats[t] = futures.get(t).get();
+        }
+        executor.shutdown();
+        return stats;
+    }
+
+    private static void playGame(Engine[] engines, AIPlayer[] players, int engineX, GameState state, Stats stats) {
+        MctsEngine.Tree[] trees = {new MctsEngine.Tree(), new MctsEngine.Tree()};
+        int result;
+        try {
+            result = playMoves(engines, players, engineX, state, stats, trees);
+        } finally {
+            // иначе узлы деревьев до очистки занимают общий предел MctsEngine,
+            // и следующие партии идут с урезанным поиском
+            for (int i = 0; i < 2; i++) {
+                players[i].releaseTree(trees[i]);
+            }
+        }
+        if (result < 0) {
+            // недопустимый ход - партия не засчитывается
+            stats.errors++;
+            return;
+        }
+        stats.results[engineX][0][result]++;
+        stats.results[1 - engineX][1][result]++;
+    }
+
+    // результат партии или -1, если ход был недопустимым
+    private static int playMoves(Engine[] engines, AIPlayer[] players, int engineX, GameState state, Stats stats,
+                                 MctsEngine.Tree[] trees) {
+        state.setCurrentPlayer('X');
+        int result = DRAW;
+        while (!state.isFull()) {
+            String symbol = String.valueOf(state.getCurrentPlayer());
+            int engine = "X".equals(symbol) ? engineX : 1 - engineX;
+
+            long moveStart = System.nanoTime();
+            Move move = players[engine].getMove(state, engines[engine].difficulty, trees[engine]);
+            stats.addLatency(engine, System.nanoTime() - moveStart);
+            stats.moves++;
+
+            if (move == null || !state.isEmpty(move.getRow(), move.getCol()) || (state.isUltimate() &&
+                    !UltimateBoard.from(state).isLegal(UltimateBoard.move(move.getRow(), move.getCol())))) {
+                return -1;
+            }
+            state.makeMove(move.getRow(), move.getCol(), symbol);
+            state.setCurrentPlayer("X".equals(symbol) ? 'O' : 'X');
+            if (state.isUltimate()) {
+                UltimateBoard board = UltimateBoard.from(state);
+                if (board.winner() != 0) {
+                    result = board.winner() == 1 ? X_WIN : O_WIN;
+                    break;
+                }
+                if (board.isFinished()) {
+                    break;
+                }
+            } else if (state.findWinAt(move.getRow(), move.getCol()) != null) {
+                result = "X".equals(symbol) ? X_WIN : O_WIN;
+                break;
+            }
+        }
+        return result;
+    }
+
+    private static void report(PrintStream out, Engine[] engines, Stats[] stats, int games, long elapsed) {
+        long moves = 0;
+        int errors = 0;
+        int[][][] results = new int[2][2][3];
+        for (Stats s : stats) {
+            moves += s.moves;
+            errors += s.errors;
+            for (int e = 0; e < 2; e++) {
+                for (int color = 0; color < 2; color++) {
+                    for (int r = 0; r < 3; r++) {
+                        results[e][color][r] += s.results[e][color][r];
+                    }
+                }
+            }
+        }
+
+        double seconds = elapsed / 1e9;
+        out.printf(Locale.ROOT, "Время %.2f с, партий/с %.1f, ходов/с %.0f%n", seconds, games / seconds, moves / seconds);
+        if (errors > 0) {
+            out.println("ОШИБКА: недопустимых ходов " + errors);
+        }
+
+        out.println("Задержка хода, мкс:      p50        p90        p99        max      ходов");
+        for (int e = 0; e < 2; e++) {
+            int count = 0;
+            for (Stats s : stats) {
+                count += s.latencyCount[e];
+            }
+            long[] all = new long[count];
+            int index = 0;
+            for (Stats s : stats) {
+                System.arraycopy(s.latencies[e], 0, all, index, s.latencyCount[e]);
+                index += s.latencyCount[e];
+            }
+            Arrays.sort(all);
+            out.printf(Locale.ROOT, "  %-3s %-12s %10d %10d %10d %10d %10d%n", e == 0 ? "A" : "B", engines[e].name,
+                    percentile(all, 50), percentile(all, 90), percentile(all, 99),
+                    count == 0 ? 0 : all[count - 1] / 1000, count);
+        }
+
+        out.println("Итоги:                 победы      ничьи  поражения");
+        for (int e = 0; e < 2; e++) {
+            for (int color = 0; color < 2; color++) {
+                int[] r = results[e][color];
+                int wins = color == 0 ? r[X_WIN] : r[O_WIN];
+                int losses = color == 0 ? r[O_WIN] : r[X_WIN];
+                out.printf(Locale.ROOT, "  %-3s %-12s %s %8d %10d %10d%n", e == 0 ? "A" : "B", engines[e].name,
+                        color == 0 ? "X" : "O", wins, r[DRAW], losses);
+            }
+        }
+    }
+
+    // перцентиль в микросекундах по отсортированным задержкам
+    private static long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1000;
+    }
+}
@@ -0,0 +1,45 @@
+//Выбор протокола для соединения
+
+
+package server;
+
+import shared.BinaryCodec;
+import shared.GameMessage;
+import shared.MessageCodec;
+import shared.SerializedCodec;
+
+import java.io.IOException;
+
+// Кодек выбирается по первому кадру соединения: HELLO означает бинарный
+// протокол, все остальное - старый клиент с сериализацией Java.
+public class ServerCodec implements MessageCodec {
+    private volatile MessageCodec delegate;
+
+    @Override
+    public byte[] encode(GameMessage message) throws IOException {
+        MessageCodec codec = delegate;
+        if (codec == null) {
+            throw new IOException("Протокол соединения еще не согласован");
+        }
+        return codec.encode(message);
+    }
+
+    @Override
+    public GameMessage decode(byte[] payload) throws IOException, ClassNotFoundException {
+        if (delegate == null) {
+            if (BinaryCodec.isHello(payload)) {
+                int clientVersion = payload[payload.length - 1] & 0xFF;
+                try {
+                    delegate = new BinaryCodec(BinaryCodec.negotiate(clientVersion));
+                } catch (IllegalArgumentException e) {
+                    // ответить не на чем: транспорт закроет соединение
+                    throw new IOException(e.getMessage());
+                }
+            } else {
+                Log.info("Клиент без HELLO - используется сериализация Java");
+                delegate = new SerializedCodec();
+            }
+        }
+        return delegate.decode(payload);
+    }
+}
@@ -3,40 +3,128 @@
 package server;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class ServerCore {
+    private static final int PLATFORM_POOL_SIZE = 10;
+    private static final int ACCEPT_BACKLOG = 1024;
+
+    // способ обслуживания соединений
+    public enum ExecutionMode {
+        NIO,        // несколько событийных циклов на все соединения
+        PLATFORM,   // фиксированный пул обычных потоков, поток на соединение
+        VIRTUAL;    // виртуальный поток на соединение
+
+        public static ExecutionMode parse(String value) {
+            switch (value.toLowerCase()) {
+                case "nio":
+                    return NIO;
+                case "platform":
+                case "pool":
+                    return PLATFORM;
+                case "virtual":
+                    return VIRTUAL;
+                default:
+                    throw new IllegalArgumentException("Неизвестный режим: " + value);
+            }
+        }
+    }
+
     private int port;
     private GameManager gameManager;
     private AuthManager authManager;
+    private ExecutionMode mode;
+    private EventLoop[] eventLoops;
     private ExecutorService threadPool;
     private boolean running;
 
     public ServerCore(int port, GameManager gameManager, AuthManager authManager) {
+        this(port, gameManager, authManager, ExecutionMode.NIO);
+    }
+
+    public ServerCore(int port, GameManager gameManager, AuthManager authManager, ExecutionMode mode) {
         this.port = port;
         this.gameManager = gameManager;
         this.authManager = authManager;
-        this.threadPool = Executors.newFixedThreadPool(10);
+        this.mode = mode;
         this.running = false;
     }
 
     public void start() throws IOException {
         running = true;
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
-            System.out.println("Сервер запущен на порту " + port);
+        if (mode == ExecutionMode.NIO) {
+            startEventLoops();
+        } else {
+            startThreadPerConnection();
+        }
+    }
+
+    // число событийных циклов в режиме NIO
+    static int eventLoopCount() {
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    // Небольшое число событийных циклов обслуживает все соединения,
+    // поэтому количество игроков не ограничено количеством потоков
+    private void startEventLoops() throws IOException {
+        int loopCount = eventLoopCount();
+        eventLoops = new EventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            eventLoops[i] = new EventLoop("event-loop-" + i, gameManager, authManager);
+            eventLoops[i].start();
+        }
+
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+            Log.info("Сервер запущен на порту " + port + " (событийных циклов: " + loopCount + ")");
+
+            int next = 0;
+            while (running) {
+                SocketChannel clientChannel = serverChannel.accept();
+                clientChannel.configureBlocking(false);
+                clientChannel.socket().setTcpNoDelay(true);
+                Log.info("Новое подключение: " + clientChannel.socket().getInetAddress());
+
+                // соединения распределяются по циклам по кругу
+                eventLoops[next].register(clientChannel);
+                next = (next + 1) % eventLoops.length;
+            }
+        } finally {
+            for (EventLoop loop : eventLoops) {
+                loop.stop();
+            }
+        }
+    }
+
+    // Блокирующий ConnectionHandler.run() на каждое соединение. Виртуальные потоки
+    // почти ничего не стоят, пока игрок думает и поток ждет в чтении сокета.
+    private void startThreadPerConnection() throws IOException {
+        if (mode == ExecutionMode.VIRTUAL) {
+            threadPool = Executors.newVirtualThreadPerTaskExecutor();
+        } else {
+            threadPool = Executors.newFixedThreadPool(PLATFORM_POOL_SIZE);
+        }
+
+        try (ServerSocket serverSocket = new ServerSocket(port, ACCEPT_BACKLOG)) {
+            Log.info("Сервер запущен на порту " + port + " (режим: " + mode + ")");
 
             while (running) {
                 Socket clientSocket = serverSocket.accept();
-                System.out.println("Новое подключение: " + clientSocket.getInetAddress());
+                clientSocket.setTcpNoDelay(true);
+                Log.info("Новое подключение: " + clientSocket.getInetAddress());
 
-                // Исправленный конструктор - передаем все необходимые параметры
                 ConnectionHandler handler = new ConnectionHandler(clientSocket, gameManager, authManager);
                 threadPool.execute(handler);
             }
+        } finally {
+            threadPool.shutdown();
         }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,243 @@
+//Таблица решенных позиций для небольших полей
+
+
+package server;
+
+import shared.GameState;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Исход каждой позиции поля до 16 клеток (например, 4x4) при идеальной игре.
+// Файл строит TablebaseGenerator, сервер отображает его в память и читает
+// прямо из отображения: поиск хода не копирует данные и не создает объектов.
+//
+// Позиция - число в троичной записи (0 - пусто, 1 - X, 2 - O), всего 3^клеток
+// записей по 2 бита: исход для того, чья очередь хода (X ходит, если знаков
+// поровну). Файл: заголовок (MAGIC, rows, cols, winLength), затем записи
+// по 4 в байте, младшие биты - меньший индекс.
+public class Tablebase {
+    public static final String DIR = "data/tablebases/";
+    public static final int MAX_CELLS = 16;
+
+    // исход для ходящего; UNKNOWN - позиция невозможна
+    public static final int UNKNOWN = 0;
+    public static final int WIN = 1;
+    public static final int DRAW = 2;
+    public static final int LOSS = 3;
+
+    static final int MAGIC = 0x54544231;   // "TTB1"
+    static final int HEADER_SIZE = 16;
+
+    private final int rows;
+    private final int cols;
+    private final int winLength;
+    private final int cells;
+    // маска клеток -> сумма 3^i по установленным битам
+    private final int[] ternary;
+    private final int[] winLines;
+    // ходы от центра к краям - при равном исходе выбирается ближний к центру
+    private final int[] moveOrder;
+    private final MappedByteBuffer data;
+
+    private Tablebase(int rows, int cols, int winLength, MappedByteBuffer data) {
+        this.rows = rows;
+        this.cols = cols;
+        this.winLength = winLength;
+        this.cells = rows * cols;
+        this.ternary = ternaryTable(cells);
+        this.winLines = winLines(rows, cols, winLength);
+        this.moveOrder = moveOrder(rows, cols);
+        this.data = data;
+    }
+
+    public static String fileName(int rows, int cols, int winLength) {
+        return rows + "x" + cols + "x" + winLength + ".ttb";
+    }
+
+    // допустимы поля, у которых таблица помещается в индекс int
+    public static boolean isSupported(int rows, int cols, int winLength) {
+        return GameState.isValidSize(rows, cols, winLength) && rows * cols <= MAX_CELLS;
+    }
+
+    public static Tablebase open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            data.order(ByteOrder.BIG_ENDIAN);
+            if (channel.size() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+                throw new IOException("Не файл таблицы: " + path);
+            }
+            int rows = data.getInt(4);
+            int cols = data.getInt(8);
+            int winLength = data.getInt(12);
+            if (!isSupported(rows, cols, winLength) ||
+                    channel.size() != HEADER_SIZE + dataSize(rows * cols)) {
+                throw new IOException("Поврежденный файл таблицы: " + path);
+            }
+            // отображение остается действительным и после закрытия канала
+            return new Tablebase(rows, cols, winLength, data);
+        }
+    }
+
+    // все таблицы из каталога; если каталога нет - пустой список
+    public static List<Tablebase> loadAll(String dir) {
+        List<Tablebase> tables = new ArrayList<>();
+        Path path = Paths.get(dir);
+        if (!Files.isDirectory(path)) {
+            return tables;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(path, "*.ttb")) {
+            for (Path file : stream) {
+                try {
+                    Tablebase table = open(file);
+                    tables.add(table);
+                    Log.info("Загружена таблица эндшпиля " + file.getFileName() + " (" +
+                            Files.size(file) / 1024 + " КБ)");
+                } catch (IOException e) {
+                    Log.warn("Ошибка загрузки таблицы " + file.getFileName() + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            Log.warn("Ошибка чтения каталога таблиц: " + e.getMessage());
+        }
+        return tables;
+    }
+
+    public boolean matches(GameState state) {
+        return state.getRows() == rows && state.getCols() == cols && state.getWinLength() == winLength;
+    }
+
+    // исход для ходящего в позиции xMask/oMask
+    public int outcome(int xMask, int oMask) {
+        return read(ternary[xMask] + 2 * ternary[oMask]);
+    }
+
+    // Лучший ход ходящего (номер клетки row * cols + col) или -1.
+    // Сразу выигрывающий ход, иначе ход в проигранную для соперника позицию,
+    // иначе в ничейную, иначе любой.
+    public int bestCell(int xMask, int oMask) {
+        boolean xToMove = Integer.bitCount(xMask) == Integer.bitCount(oMask);
+        int mine = xToMove ? xMask : oMask;
+        int empty = ~(xMask | oMask) & ((1 << cells) - 1);
+        if (empty == 0) {
+            return -1;
+        }
+
+        int index = ternary[xMask] + 2 * ternary[oMask];
+        int digit = xToMove ? 1 : 2;
+        int draw = -1;
+        int any = -1;
+        int loss = -1;
+        for (int cell : moveOrder) {
+            int bit = 1 << cell;
+            if ((empty & bit) == 0) {
+                continue;
+            }
+            if (isWin(mine | bit, winLines)) {
+                return cell;
+            }
+            int child = read(index + digit * ternary[bit]);
+            if (child == LOSS && loss < 0) {
+                loss = cell;
+            } else if (child == DRAW && draw < 0) {
+                draw = cell;
+            } else if (any < 0) {
+                any = cell;
+            }
+        }
+        return loss >= 0 ? loss : draw >= 0 ? draw : any;
+    }
+
+    private int read(int index) {
+        int packed = data.get(HEADER_SIZE + (index >>> 2));
+        return (packed >>> ((index & 3) << 1)) & 3;
+    }
+
+    static long dataSize(int cells) {
+        return (pow3(cells) + 3) / 4;
+    }
+
+    static int pow3(int cells) {
+        int value = 1;
+        for (int i = 0; i < cells; i++) {
+            value *= 3;
+        }
+        return value;
+    }
+
+    static int[] ternaryTable(int cells) {
+        int[] table = new int[1 << cells];
+        for (int mask = 1; mask < table.length; mask++) {
+            int low = Integer.numberOfTrailingZeros(mask);
+            table[mask] = table[mask & (mask - 1)] + pow3(low);
+        }
+        return table;
+    }
+
+    // маски всех линий из winLength клеток
+    static int[] winLines(int rows, int cols, int winLength) {
+        int[][] directions = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+        List<Integer> lines = new ArrayList<>();
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                for (int[] direction : directions) {
+                    int endRow = row + direction[0] * (winLength - 1);
+                    int endCol = col + direction[1] * (winLength - 1);
+                    if (endRow < 0 || endRow >= rows || endCol < 0 || endCol >= cols) {
+                        continue;
+                    }
+                    int line = 0;
+                    for (int i = 0; i < winLength; i++) {
+                        line |= 1 << ((row + direction[0] * i) * cols + col + direction[1] * i);
+                    }
+                    lines.add(line);
+                }
+            }
+        }
+        int[] result = new int[lines.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = lines.get(i);
+        }
+        return result;
+    }
+
+    static boolean isWin(int mask, int[] lines) {
+        for (int line : lines) {
+            if ((mask & line) == line) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static int[] moveOrder(int rows, int cols) {
+        Integer[] order = new Integer[rows * cols];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(
+                distance(a, rows, cols), distance(b, rows, cols)));
+        int[] result = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            result[i] = order[i];
+        }
+        return result;
+    }
+
+    // квадрат расстояния до центра в удвоенных координатах, чтобы центр четного поля был целым
+    private static int distance(int cell, int rows, int cols) {
+        int dr = 2 * (cell / cols) - (rows - 1);
+        int dc = 2 * (cell % cols) - (cols - 1);
+        return dr * dr + dc * dc;
+    }
+}
@@ -0,0 +1,149 @@
+//Генератор таблиц решенных позиций
+
+
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// Ретроградный анализ всех позиций поля: от заполненных позиций к пустой.
+// Каждый ход добавляет знак, поэтому исходы позиций с n знаками зависят
+// только от позиций с n + 1 знаками. Позиции одного слоя независимы и
+// считаются параллельно.
+//
+// Запуск: java server.TablebaseGenerator [строк столбцов длина_линии] [--threads=N] [--out=каталог]
+// По умолчанию 4x4, 4 в ряд, все ядра, каталог Tablebase.DIR.
+public class TablebaseGenerator {
+    public static void main(String[] args) throws Exception {
+        int[] size = {4, 4, 4};
+        int sizeArgs = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String dir = Tablebase.DIR;
+        for (String arg : args) {
+            if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (arg.startsWith("--out=")) {
+                dir = arg.substring("--out=".length());
+            } else if (sizeArgs < size.length) {
+                size[sizeArgs++] = Integer.parseInt(arg);
+            }
+        }
+        int rows = size[0];
+        int cols = size[1];
+        int winLength = size[2];
+        if (!Tablebase.isSupported(rows, cols, winLength)) {
+            System.out.println("Таблицы строятся только для полей до " + Tablebase.MAX_CELLS + " клеток");
+            return;
+        }
+
+        System.out.println("Построение таблицы " + rows + "x" + cols + ", " + winLength + " в ряд, потоков " + threads);
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        byte[] outcomes = pool.submit(() -> solve(rows, cols, winLength)).get();
+        pool.shutdown();
+        long solved = System.nanoTime();
+
+        Path path = Paths.get(dir, Tablebase.fileName(rows, cols, winLength));
+        Files.createDirectories(path.getParent());
+        write(path, rows, cols, winLength, outcomes);
+
+        int[] counts = new int[4];
+        for (byte outcome : outcomes) {
+            counts[outcome]++;
+        }
+        System.out.println("Позиций: " + (outcomes.length - counts[Tablebase.UNKNOWN]) +
+                " (выигрыш " + counts[Tablebase.WIN] + ", ничья " + counts[Tablebase.DRAW] +
+                ", проигрыш " + counts[Tablebase.LOSS] + ")");
+        System.out.println("Пустое поле: " + name(outcomes[0]) + " для первого игрока");
+        System.out.println("Анализ: " + (solved - start) / 1_000_000 + " мс, запись: " +
+                (System.nanoTime() - solved) / 1_000_000 + " мс");
+        System.out.println("Файл " + path + ": " + Files.size(path) / 1024 + " КБ");
+    }
+
+    // исход каждой позиции (индекс - троичная запись) для ходящего
+    static byte[] solve(int rows, int cols, int winLength) {
+        int cells = rows * cols;
+        int full = (1 << cells) - 1;
+        int[] ternary = Tablebase.ternaryTable(cells);
+        int[] lines = Tablebase.winLines(rows, cols, winLength);
+        byte[] outcomes = new byte[Tablebase.pow3(cells)];
+
+        for (int stones = cells; stones >= 0; stones--) {
+            int xCount = (stones + 1) / 2;
+            int oCount = stones / 2;
+            int layer = stones;
+            IntStream.rangeClosed(0, full).parallel()
+                    .filter(x -> Integer.bitCount(x) == xCount)
+                    .forEach(x -> {
+                        int free = full & ~x;
+                        // все подмножества свободных клеток с oCount знаками
+                        for (int o = free; ; o = (o - 1) & free) {
+                            if (Integer.bitCount(o) == oCount) {
+                                outcomes[ternary[x] + 2 * ternary[o]] =
+                                        solvePosition(x, o, layer, cells, ternary, lines, outcomes);
+                            }
+                            if (o == 0) {
+                                break;
+                            }
+                        }
+                    });
+        }
+        return outcomes;
+    }
+
+    private static byte solvePosition(int x, int o, int stones, int cells,
+                                      int[] ternary, int[] lines, byte[] outcomes) {
+        boolean xToMove = Integer.bitCount(x) == Integer.bitCount(o);
+        // соперник последним ходом собрал линию - ходящий проиграл
+        if (stones > 0 && Tablebase.isWin(xToMove ? o : x, lines)) {
+            return Tablebase.LOSS;
+        }
+        if (stones == cells) {
+            return Tablebase.DRAW;
+        }
+
+        int index = ternary[x] + 2 * ternary[o];
+        int digit = xToMove ? 1 : 2;
+        int empty = ~(x | o) & ((1 << cells) - 1);
+        byte best = Tablebase.LOSS;
+        for (int bits = empty; bits != 0; bits &= bits - 1) {
+            int bit = bits & -bits;
+            byte child = outcomes[index + digit * ternary[bit]];
+            if (child == Tablebase.LOSS) {
+                return Tablebase.WIN;
+            }
+            if (child == Tablebase.DRAW) {
+                best = Tablebase.DRAW;
+            }
+        }
+        return best;
+    }
+
+    private static void write(Path path, int rows, int cols, int winLength, byte[] outcomes) throws IOException {
+        ByteBuffer file = ByteBuffer.allocate(Tablebase.HEADER_SIZE + (int) Tablebase.dataSize(rows * cols));
+        file.putInt(Tablebase.MAGIC).putInt(rows).putInt(cols).putInt(winLength);
+        for (int i = 0; i < outcomes.length; i++) {
+            int position = Tablebase.HEADER_SIZE + (i >>> 2);
+            file.put(position, (byte) (file.get(position) | outcomes[i] << ((i & 3) << 1)));
+        }
+        Files.write(path, file.array());
+    }
+
+    private static String name(int outcome) {
+        switch (outcome) {
+            case Tablebase.WIN:
+                return "выигрыш";
+            case Tablebase.DRAW:
+                return "ничья";
+            case Tablebase.LOSS:
+                return "проигрыш";
+            default:
+                return "неизвестно";
+        }
+    }
+}
@@ -0,0 +1,202 @@
+//Иерархическое колесо таймеров
+
+
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Таймеры с точностью до такта (tickMillis). Уровень 0 - SLOTS ячеек по
+// одному такту, каждый следующий уровень в SLOTS раз грубее. Таймер кладется
+// в ячейку уровня, который покрывает его срок; когда стрелка уровня 0
+// проходит полный круг, ячейка следующего уровня раскладывается по нижним.
+// Постановка и отмена - вставка и удаление из двусвязного списка ячейки, O(1),
+// независимо от числа таймеров. При тактах в 1 с четыре уровня покрывают
+// 64^4 с (около 194 суток); более дальние сроки ждут на верхнем уровне
+// и раскладываются заново.
+//
+// Методы синхронизированы: каждый занимает доли микросекунды, а сработавшие
+// таймеры отдаются обработчику вне блокировки.
+public class TimingWheel<T> {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 4;
+
+    // таймер; одновременно стоит не больше чем в одной ячейке
+    public static final class Timeout<T> {
+        private final T value;
+        private final long deadline;   // номер такта срабатывания
+        private Timeout<T> prev;
+        private Timeout<T> next;
+        private Timeout<T>[] slots;
+        private int slot = -1;
+
+        private Timeout(T value, long deadline) {
+            this.value = value;
+            this.deadline = deadline;
+        }
+
+        public T getValue() { return value; }
+    }
+
+    private final long tickMillis;
+    private final Consumer<T> onExpire;
+    private final Timeout<T>[][] wheels;
+    private final long startMillis;
+    // номер последнего обработанного такта
+    private long currentTick;
+    private int size;
+    private Thread ticker;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheel(long tickMillis, Consumer<T> onExpire) {
+        this.tickMillis = tickMillis;
+        this.onExpire = onExpire;
+        this.wheels = new Timeout[LEVELS][SLOTS];
+        this.startMillis = System.currentTimeMillis();
+    }
+
+    // срабатывание value через delayMillis (не раньше, с округлением вверх до такта)
+    public Timeout<T> schedule(T value, long delayMillis) {
+        return schedule(value, delayMillis, System.currentTimeMillis());
+    }
+
+    synchronized Timeout<T> schedule(T value, long delayMillis, long nowMillis) {
+        long elapsed = nowMillis - startMillis;
+        long deadline = Math.max(currentTick + 1, (elapsed + delayMillis + tickMillis - 1) / tickMillis);
+        Timeout<T> timeout = new Timeout<>(value, deadline);
+        place(timeout);
+        size++;
+        return timeout;
+    }
+
+    // false - таймер уже сработал или отменен
+    public synchronized boolean cancel(Timeout<T> timeout) {
+        if (timeout == null || timeout.slots == null) {
+            return false;
+        }
+        unlink(timeout);
+        size--;
+        return true;
+    }
+
+    // таймер стоит в колесе: не сработал и не отменен
+    public synchronized boolean isPending(Timeout<T> timeout) {
+        return timeout != null && timeout.slots != null;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    // поток, который раз в такт продвигает колесо и вызывает обработчик
+    public synchronized void start(String name) {
+        if (ticker != null) {
+            return;
+        }
+        ticker = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(tickMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (T value : advance(System.currentTimeMillis())) {
+                    try {
+                        onExpire.accept(value);
+                    } catch (RuntimeException e) {
+                        Log.error("Ошибка обработки таймера: " + e.getMessage(), e);
+                    }
+                }
+            }
+        }, name);
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    public synchronized void stop() {
+        if (ticker != null) {
+            ticker.interrupt();
+            ticker = null;
+        }
+    }
+
+    // Продвигает стрелку до момента nowMillis; возвращает значения сработавших таймеров
+    synchronized List<T> advance(long nowMillis) {
+        return advanceTo((nowMillis - startMillis) / tickMillis);
+    }
+
+    synchronized List<T> advanceTo(long targetTick) {
+        List<T> expired = new ArrayList<>();
+        while (currentTick < targetTick) {
+            currentTick++;
+            // полный круг нижних уровней - раскладываем ячейку следующего
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                    cascade(level, (int) (currentTick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+                }
+            }
+            Timeout<T>[] slots = wheels[0];
+            int slot = (int) currentTick & (SLOTS - 1);
+            Timeout<T> timeout = slots[slot];
+            while (timeout != null) {
+                Timeout<T> next = timeout.next;
+                unlink(timeout);
+                size--;
+                expired.add(timeout.value);
+                timeout = next;
+            }
+        }
+        return expired;
+    }
+
+    private void cascade(int level, int slot) {
+        Timeout<T> timeout = wheels[level][slot];
+        wheels[level][slot] = null;
+        while (timeout != null) {
+            Timeout<T> next = timeout.next;
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.slots = null;
+            place(timeout);
+            timeout = next;
+        }
+    }
+
+    private void place(Timeout<T> timeout) {
+        long delta = timeout.deadline - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        // слишком дальний срок - в самую дальнюю ячейку верхнего уровня
+        long tick = delta >= 1L << (SLOT_BITS * LEVELS) ?
+                currentTick + (1L << (SLOT_BITS * LEVELS)) - 1 : timeout.deadline;
+        int slot = (int) (tick >>> (SLOT_BITS * level)) & (SLOTS - 1);
+
+        Timeout<T>[] slots = wheels[level];
+        timeout.slots = slots;
+        timeout.slot = slot;
+        timeout.prev = null;
+        timeout.next = slots[slot];
+        if (slots[slot] != null) {
+            slots[slot].prev = timeout;
+        }
+        slots[slot] = timeout;
+    }
+
+    private void unlink(Timeout<T> timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            timeout.slots[timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.slots = null;
+    }
+}
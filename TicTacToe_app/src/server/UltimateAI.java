@@ -0,0 +1,231 @@
+//ИИ для ультимейта
+
+
+package server;
+
+import shared.GameState;
+import shared.Move;
+import shared.UltimateBoard;
+
+// Перебор с альфа-бета отсечением по упакованной доске UltimateBoard,
+// с итеративным углублением: глубина растет, пока не кончится бюджет
+// времени, в ход идет результат последней завершенной глубины.
+// Оценка позиции - линии большого поля и открытые малые поля; оценки малых
+// полей посчитаны заранее для всех 2^18 раскладок поля 3x3.
+public class UltimateAI {
+    public static final long DEFAULT_TIME_MILLIS = 10;
+    public static final int MAX_DEPTH = 64;
+
+    private static final int WIN_SCORE = 1_000_000;
+    // время проверяется раз в столько узлов
+    private static final int CHECK_INTERVAL = 1024;
+
+    // линии поля 3x3
+    private static final int[] LINES = {
+            0b000_000_111, 0b000_111_000, 0b111_000_000,
+            0b001_001_001, 0b010_010_010, 0b100_100_100,
+            0b100_010_001, 0b001_010_100
+    };
+
+    // оценка малого поля для X по раскладке x | o << 9
+    private static final int[] LOCAL = new int[1 << 18];
+    // вес малого поля: через центр проходят 4 линии, через угол 3, через сторону 2
+    private static final int[] BOARD_WEIGHT = {3, 2, 3, 2, 4, 2, 3, 2, 3};
+
+    static {
+        for (int pattern = 0; pattern < LOCAL.length; pattern++) {
+            int x = pattern & GameState.FULL_MASK;
+            int o = pattern >>> 9;
+            if ((x & o) != 0) {
+                continue;
+            }
+            LOCAL[pattern] = lineScore(x, o, 0, 1, 4) + (x >> 4 & 1) - (o >> 4 & 1);
+        }
+    }
+
+    private final long timeMillis;
+    private final int maxDepth;
+
+    // состояние одного поиска; создается на каждый ход, поэтому
+    // один UltimateAI можно вызывать из разных потоков
+    private static class Search {
+        final UltimateBoard board;
+        final long deadline;
+        final int[][] moves = new int[MAX_DEPTH + 1][UltimateBoard.MOVES];
+        final int[][] order = new int[MAX_DEPTH + 1][UltimateBoard.MOVES];
+        long nodes;
+        boolean aborted;
+
+        Search(UltimateBoard board, long deadline) {
+            this.board = board;
+            this.deadline = deadline;
+        }
+    }
+
+    public UltimateAI() {
+        this(DEFAULT_TIME_MILLIS, MAX_DEPTH);
+    }
+
+    // timeMillis - бюджет хода, maxDepth - предел глубины
+    public UltimateAI(long timeMillis, int maxDepth) {
+        this.timeMillis = timeMillis;
+        this.maxDepth = Math.min(maxDepth, MAX_DEPTH);
+    }
+
+    public Move search(GameState state) {
+        UltimateBoard board = UltimateBoard.from(state);
+        if (board.isFinished()) {
+            return null;
+        }
+        long start = System.nanoTime();
+        Search search = new Search(board, start + timeMillis * 1_000_000L);
+
+        int[] rootMoves = search.moves[0];
+        int count = board.legalMoves(rootMoves);
+        int best = rootMoves[0];
+        int bestScore = 0;
+        int depth = 0;
+        while (depth < maxDepth && !search.aborted) {
+            int currentBest = -1;
+            int currentScore = -WIN_SCORE - 1;
+            int alpha = -WIN_SCORE - 1;
+            for (int i = 0; i < count; i++) {
+                int move = rootMoves[i];
+                int previous = board.play(move);
+                int score = -negamax(search, depth, 1, -WIN_SCORE - 1, -alpha);
+                board.undo(move, previous);
+                if (search.aborted) {
+                    break;
+                }
+                if (score > currentScore) {
+                    currentScore = score;
+                    currentBest = i;
+                    alpha = Math.max(alpha, score);
+                }
+            }
+            if (search.aborted || currentBest < 0) {
+                break;
+            }
+            depth++;
+            best = rootMoves[currentBest];
+            bestScore = currentScore;
+            // лучший ход - первым на следующей глубине
+            System.arraycopy(rootMoves, 0, rootMoves, 1, currentBest);
+            rootMoves[0] = best;
+            // выигрыш или проигрыш уже доказан
+            if (Math.abs(bestScore) > WIN_SCORE - MAX_DEPTH * 2) {
+                break;
+            }
+        }
+
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        if (Log.isDebugEnabled()) {
+            Log.debug("Ультимейт: ход [" + UltimateBoard.row(best) + "," + UltimateBoard.col(best) +
+                    "], глубина " + depth + ", узлов " + search.nodes + ", оценка " + bestScore +
+                    ", время " + elapsed + " мс");
+        }
+        return new Move(UltimateBoard.row(best), UltimateBoard.col(best));
+    }
+
+    // оценка позиции для ходящего; ply - число ходов от корня
+    private int negamax(Search search, int depth, int ply, int alpha, int beta) {
+        UltimateBoard board = search.board;
+        if ((++search.nodes & (CHECK_INTERVAL - 1)) == 0 && System.nanoTime() > search.deadline) {
+            search.aborted = true;
+            return 0;
+        }
+        // победить мог только сходивший - для ходящего это проигрыш
+        if (board.winner() != 0) {
+            return -(WIN_SCORE - ply);
+        }
+        if (board.isFinished()) {
+            return 0;
+        }
+        if (depth == 0) {
+            return evaluate(board);
+        }
+
+        int[] moves = search.moves[ply];
+        int count = orderMoves(board, moves, search.order[ply]);
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            int previous = board.play(move);
+            int score = -negamax(search, depth - 1, ply + 1, -beta, -alpha);
+            board.undo(move, previous);
+            if (search.aborted) {
+                return 0;
+            }
+            if (score >= beta) {
+                return score;
+            }
+            if (score > alpha) {
+                alpha = score;
+            }
+        }
+        return alpha;
+    }
+
+    // Сначала ходы, выигрывающие малое поле, в конце - ходы, которые
+    // отправляют соперника в закрытое поле и дают ему свободный выбор.
+    private static int orderMoves(UltimateBoard board, int[] moves, int[] keys) {
+        int count = board.legalMoves(moves);
+        int shift = 9 * board.getSide();
+        int closed = board.getClosed();
+        for (int i = 0; i < count; i++) {
+            int b = moves[i] / GameState.CELLS;
+            int cell = moves[i] % GameState.CELLS;
+            int mine = board.getBoard(b) >>> shift & GameState.FULL_MASK;
+            int key = UltimateBoard.isWin(mine | 1 << cell) ? 2 : (closed & (1 << cell)) != 0 ? 0 : 1;
+            keys[i] = key;
+        }
+        // сортировка вставками по убыванию ключа: ходов не больше 81
+        for (int i = 1; i < count; i++) {
+            int move = moves[i];
+            int key = keys[i];
+            int j = i - 1;
+            while (j >= 0 && keys[j] < key) {
+                moves[j + 1] = moves[j];
+                keys[j + 1] = keys[j];
+                j--;
+            }
+            moves[j + 1] = move;
+            keys[j + 1] = key;
+        }
+        return count;
+    }
+
+    // оценка для ходящего
+    private static int evaluate(UltimateBoard board) {
+        int closed = board.getClosed();
+        int x = board.getMacro() & GameState.FULL_MASK;
+        int o = board.getMacro() >>> 9;
+        // ничейное поле закрывает свои линии для обоих
+        int score = lineScore(x, o, closed & ~(x | o), 20, 90) +
+                60 * (Integer.bitCount(x) - Integer.bitCount(o)) + 15 * ((x >> 4 & 1) - (o >> 4 & 1));
+        for (int open = ~closed & GameState.FULL_MASK; open != 0; open &= open - 1) {
+            int b = Integer.numberOfTrailingZeros(open);
+            score += BOARD_WEIGHT[b] * LOCAL[board.getBoard(b)];
+        }
+        return board.getSide() == 0 ? score : -score;
+    }
+
+    // Сумма по линиям поля 3x3, не занятым соперником и не задетым blocked:
+    // one - за линию с одной своей клеткой, two - с двумя
+    private static int lineScore(int x, int o, int blocked, int one, int two) {
+        int score = 0;
+        for (int line : LINES) {
+            if ((line & blocked) != 0) {
+                continue;
+            }
+            int xs = Integer.bitCount(x & line);
+            int os = Integer.bitCount(o & line);
+            if (os == 0) {
+                score += xs == 2 ? two : xs == 1 ? one : 0;
+            }
+            if (xs == 0) {
+                score -= os == 2 ? two : os == 1 ? one : 0;
+            }
+        }
+        return score;
+    }
+}
@@ -1,10 +1,15 @@
 package server.storage;
 
+import server.GameIdGenerator;
 import server.GameManager;
+import server.Log;
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
 
+// Файл сохранения называется только по ID игры, без имени игрока. Владелец
+// записан в начале файла перед самой игрой и сверяется при загрузке, в списке
+// сохранений и при удалении. Старые файлы player_gameId.dat по-прежнему читаются.
 public class GameStorage {
     private static final String SAVE_DIR = "data/games/";
 
@@ -14,23 +19,60 @@ public class GameStorage {
 
     // Сохраняем только активные (не завершенные) игры
     public void saveGame(GameManager.GameSession session, String player) throws IOException {
+        saveSnapshot(session.getGameId(), snapshot(session, player));
+    }
+
+    // Сериализованная копия игры вместе с владельцем. Снимается в очереди игры,
+    // чтобы в файл не попал ход наполовину; запись на диск (saveSnapshot) идет
+    // уже вне очереди.
+    public static byte[] snapshot(GameManager.GameSession session, String player) throws IOException {
         if (!session.isActive()) {
             throw new IOException("Нельзя сохранить завершенную игру");
         }
-
-        String filename = player + "_" + session.getGameId() + ".dat";
-        Path filePath = Paths.get(SAVE_DIR + filename);
-
-        try (ObjectOutputStream oos = new ObjectOutputStream(
-                Files.newOutputStream(filePath, StandardOpenOption.CREATE,
-                        StandardOpenOption.TRUNCATE_EXISTING))) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream data = new DataOutputStream(bytes)) {
+            data.writeUTF(player);
+            ObjectOutputStream oos = new ObjectOutputStream(data);
             oos.writeObject(session);
-            System.out.println("Игра сохранена: " + filename);
+            oos.flush();
         }
+        return bytes.toByteArray();
     }
 
+    // Запись через временный файл: загрузка в соседнем потоке ввода-вывода
+    // видит либо старое сохранение, либо новое целиком
+    public void saveSnapshot(String gameId, byte[] data) throws IOException {
+        Path filePath = savePath(gameId);
+        if (filePath == null) {
+            throw new IOException("Недопустимый ID игры: " + gameId);
+        }
+        Path tempPath = Paths.get(SAVE_DIR + gameId + ".dat.tmp");
+
+        Files.write(tempPath, data);
+        Files.move(tempPath, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Log.info("Игра сохранена: " + filePath.getFileName());
+    }
+
+    // Чужая игра не загружается, как будто ее нет
     public GameManager.GameSession loadGame(String gameId, String player)
             throws IOException, ClassNotFoundException {
+        Path filePath = savePath(gameId);
+        if (filePath != null && Files.exists(filePath)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(filePath)))) {
+                if (!in.readUTF().equals(player)) {
+                    return null;
+                }
+                GameManager.GameSession session = (GameManager.GameSession) new ObjectInputStream(in).readObject();
+                Log.info("Игра загружена: " + filePath.getFileName());
+                return session;
+            }
+        }
+        return loadLegacyGame(gameId, player);
+    }
+
+    // файл старого формата: имя игрока в имени файла, внутри только игра
+    private GameManager.GameSession loadLegacyGame(String gameId, String player)
+            throws IOException, ClassNotFoundException {
         String pattern = player + "_" + gameId + ".dat";
 
         try (DirectoryStream<Path> stream = Files.newDirectoryStream(
@@ -40,7 +82,7 @@ public class GameStorage {
                 try (ObjectInputStream ois = new ObjectInputStream(
                         Files.newInputStream(entry))) {
                     GameManager.GameSession session = (GameManager.GameSession) ois.readObject();
-                    System.out.println("Игра загружена: " + entry.getFileName());
+                    Log.info("Игра загружена: " + entry.getFileName());
                     return session;
                 }
             }
@@ -49,16 +91,31 @@ public class GameStorage {
     }
 
     public List<String> getUserSavedGames(String player) throws IOException {
-        List<String> games = new ArrayList<>();
-        String pattern = player + "_*.dat";
+        Set<String> games = new TreeSet<>(Collections.reverseOrder());
 
         try (DirectoryStream<Path> stream = Files.newDirectoryStream(
-                Paths.get(SAVE_DIR), pattern)) {
+                Paths.get(SAVE_DIR), "*.dat")) {
 
             for (Path entry : stream) {
                 String filename = entry.getFileName().toString();
                 // Извлекаем gameId из имени файла
-                String gameId = filename.substring(player.length() + 1, filename.length() - 4);
+                String gameId;
+                if (GameIdGenerator.isValid(filename.substring(0, filename.length() - 4))) {
+                    gameId = filename.substring(0, filename.length() - 4);
+                    // у чужих файлов читается только владелец
+                    try {
+                        if (!player.equals(readOwner(entry))) {
+                            continue;
+                        }
+                    } catch (IOException e) {
+                        Log.warn("Поврежденный файл игры: " + filename);
+                        continue;
+                    }
+                } else if (filename.startsWith(player + "_")) {
+                    gameId = filename.substring(player.length() + 1, filename.length() - 4);
+                } else {
+                    continue;
+                }
 
                 // Проверяем, что игра еще актуальна (не повреждена)
                 try {
@@ -68,17 +125,26 @@ public class GameStorage {
                     }
                 } catch (Exception e) {
                     // Пропускаем поврежденные файлы
-                    System.err.println("Поврежденный файл игры: " + filename);
+                    Log.warn("Поврежденный файл игры: " + filename);
                 }
             }
         }
 
         // Сортируем по времени создания (новые сверху)
-        games.sort(Collections.reverseOrder());
-        return games;
+        return new ArrayList<>(games);
     }
 
     public boolean deleteSavedGame(String gameId, String player) throws IOException {
+        Path filePath = savePath(gameId);
+        if (filePath != null && Files.exists(filePath)) {
+            if (!player.equals(readOwner(filePath))) {
+                return false;
+            }
+            Files.delete(filePath);
+            Log.info("Игра удалена: " + filePath.getFileName());
+            return true;
+        }
+
         String pattern = player + "_" + gameId + ".dat";
 
         try (DirectoryStream<Path> stream = Files.newDirectoryStream(
@@ -86,7 +152,7 @@ public class GameStorage {
 
             for (Path entry : stream) {
                 Files.delete(entry);
-                System.out.println("Игра удалена: " + entry.getFileName());
+                Log.info("Игра удалена: " + entry.getFileName());
                 return true;
             }
         }
@@ -103,9 +169,20 @@ public class GameStorage {
             for (Path entry : stream) {
                 if (Files.getLastModifiedTime(entry).toMillis() < cutoffTime) {
                     Files.delete(entry);
-                    System.out.println("Удалена старая игра: " + entry.getFileName());
+                    Log.info("Удалена старая игра: " + entry.getFileName());
                 }
             }
         }
     }
-}
\ No newline at end of file
+
+    // null - ID пришел не от генератора и в путь не годится
+    private static Path savePath(String gameId) {
+        return GameIdGenerator.isValid(gameId) ? Paths.get(SAVE_DIR + gameId + ".dat") : null;
+    }
+
+    private static String readOwner(Path filePath) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(filePath)))) {
+            return in.readUTF();
+        }
+    }
+}
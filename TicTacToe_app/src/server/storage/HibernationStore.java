@@ -0,0 +1,81 @@
+package server.storage;
+
+import server.Log;
+import shared.BinaryCodec;
+import shared.GameState;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+// Состояния уснувших игр на диске, по файлу на игру в компактном бинарном
+// виде BinaryCodec (для поля 3x3 - 8 байт). Файлы раскладываются по 256
+// подкаталогам, чтобы миллионы игр не лежали в одном каталоге.
+//
+// Каталог у каждого запуска свой: после перезапуска заглушек уснувших игр
+// в памяти нет, и старые каталоги удаляются в фоне, не задевая новые файлы.
+public class HibernationStore {
+    public static final String DIR = "data/hibernate/";
+    private static final int SHARDS = 256;
+
+    private final Path root;
+
+    public HibernationStore() throws IOException {
+        this(DIR);
+    }
+
+    public HibernationStore(String dir) throws IOException {
+        Path base = Paths.get(dir);
+        Files.createDirectories(base);
+        this.root = base.resolve(Long.toString(System.currentTimeMillis(), 36));
+        for (int i = 0; i < SHARDS; i++) {
+            Files.createDirectories(root.resolve(shard(i)));
+        }
+
+        Thread cleaner = new Thread(() -> removePreviousRuns(base), "hibernate-cleanup");
+        cleaner.setDaemon(true);
+        cleaner.start();
+    }
+
+    public void save(String gameId, GameState state) throws IOException {
+        Files.write(path(gameId), BinaryCodec.encodeGameState(state));
+    }
+
+    // читает состояние и удаляет файл: в памяти оно снова главное
+    public GameState load(String gameId) throws IOException {
+        Path path = path(gameId);
+        GameState state = BinaryCodec.decodeGameState(Files.readAllBytes(path));
+        Files.delete(path);
+        return state;
+    }
+
+    public void delete(String gameId) throws IOException {
+        Files.deleteIfExists(path(gameId));
+    }
+
+    private Path path(String gameId) {
+        int hash = gameId.hashCode();
+        return root.resolve(shard((hash ^ (hash >>> 16)) & (SHARDS - 1))).resolve(gameId + ".bin");
+    }
+
+    private static String shard(int index) {
+        return String.format("%02x", index);
+    }
+
+    private void removePreviousRuns(Path base) {
+        try (DirectoryStream<Path> runs = Files.newDirectoryStream(base)) {
+            for (Path run : runs) {
+                if (run.equals(root) || !Files.isDirectory(run)) {
+                    continue;
+                }
+                try (Stream<Path> files = Files.walk(run)) {
+                    files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+                }
+                Log.info("Удалены уснувшие игры прошлого запуска: " + run.getFileName());
+            }
+        } catch (IOException e) {
+            Log.warn("Ошибка очистки каталога уснувших игр: " + e.getMessage());
+        }
+    }
+}
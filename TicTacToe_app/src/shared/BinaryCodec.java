@@ -0,0 +1,435 @@
+//Компактный бинарный протокол
+
+
+package shared;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Содержимое кадра: код типа (1 байт), номер запроса (4 байта, с версии 2),
+// число полей (1 байт), затем для каждого поля - код поля (1 байт),
+// тег значения (1 байт) и значение.
+// Move и GameState имеют фиксированную раскладку, поэтому ход занимает
+// несколько десятков байт вместо сотен при сериализации.
+//
+// Соединение начинается с HELLO: "TTT" + версия протокола. По нему сервер
+// отличает новых клиентов от старых, которые сразу шлют сериализованные объекты.
+public class BinaryCodec implements MessageCodec {
+    public static final int VERSION = 6;
+    public static final String HELLO = "HELLO";
+
+    // версия 2 добавила номер запроса в заголовок сообщения
+    private static final int REQUEST_ID_VERSION = 2;
+    // версия 3 добавила выигрышную линию в GameState
+    private static final int WIN_LINE_VERSION = 3;
+    // версия 4 добавила поле difficulty в NEW_GAME
+    private static final int DIFFICULTY_VERSION = 4;
+    // версия 5 добавила поля произвольного размера (m,n,k)
+    private static final int BOARD_SIZE_VERSION = 5;
+    // версия 6 добавила ультимейт: поле ultimate в NEW_GAME и последний ход в GameState
+    private static final int ULTIMATE_VERSION = 6;
+
+    private static final byte[] MAGIC = {'T', 'T', 'T'};
+
+    // теги значений
+    private static final int T_NULL = 0;
+    private static final int T_BOOLEAN = 1;
+    private static final int T_INT = 2;
+    private static final int T_CHAR = 3;
+    private static final int T_STRING = 4;
+    private static final int T_MOVE = 5;
+    private static final int T_GAME_STATE = 6;
+    private static final int T_STRING_LIST = 7;
+
+    private static final String[] TYPE_BY_OPCODE = new String[256];
+    private static final Map<String, Integer> OPCODE_BY_TYPE = new HashMap<>();
+    private static final String[] KEY_BY_FIELD = new String[256];
+    private static final Map<String, Integer> FIELD_BY_KEY = new HashMap<>();
+    // версия протокола, с которой известно поле
+    private static final int[] FIELD_SINCE = new int[256];
+
+    static {
+        // запросы клиента
+        opcode(0x01, "LOGIN");
+        opcode(0x02, "REGISTER");
+        opcode(0x03, "MOVE");
+        opcode(0x04, "NEW_GAME");
+        opcode(0x05, "GET_GAME_STATE");
+        opcode(0x06, "SAVE_GAME");
+        opcode(0x07, "LOAD_GAME");
+        opcode(0x08, "GET_SAVED_GAMES");
+
+        // ответы сервера
+        opcode(0x41, "LOGIN_RESPONSE");
+        opcode(0x42, "REGISTER_RESPONSE");
+        opcode(0x43, "MOVE_RESPONSE");
+        opcode(0x44, "NEW_GAME_RESPONSE");
+        opcode(0x45, "GAME_STATE_RESPONSE");
+        opcode(0x46, "SAVE_GAME_RESPONSE");
+        opcode(0x47, "LOAD_GAME_RESPONSE");
+        opcode(0x48, "GET_SAVED_GAMES_RESPONSE");
+        opcode(0x7F, "ERROR");
+
+        // события, которые сервер отправляет сам
+        opcode(0x60, "GAME_STATE_UPDATE");
+
+        field(0x01, "username");
+        field(0x02, "password");
+        field(0x03, "success");
+        field(0x04, "message");
+        field(0x05, "gameId");
+        field(0x06, "player");
+        field(0x07, "move");
+        field(0x08, "vsAI");
+        field(0x09, "gameState");
+        field(0x0A, "player2");
+        field(0x0B, "board");
+        field(0x0C, "currentPlayer");
+        field(0x0D, "gameOver");
+        field(0x0E, "winner");
+        field(0x0F, "gameIds");
+        field(0x10, "version");
+        field(0x11, "difficulty", DIFFICULTY_VERSION);
+        field(0x12, "rows", BOARD_SIZE_VERSION);
+        field(0x13, "cols", BOARD_SIZE_VERSION);
+        field(0x14, "winLength", BOARD_SIZE_VERSION);
+        field(0x15, "ultimate", ULTIMATE_VERSION);
+    }
+
+    private final int version;
+
+    public BinaryCodec() {
+        this(VERSION);
+    }
+
+    // кодек для версии, согласованной в HELLO
+    public BinaryCodec(int version) {
+        this.version = version;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    // Версия, которую сервер выбирает для клиента. Версий меньше 1 нет:
+    // кодек для них не знал бы, есть ли в кадре номер запроса.
+    public static int negotiate(int clientVersion) {
+        if (clientVersion < 1) {
+            throw new IllegalArgumentException("Неподдерживаемая версия протокола: " + clientVersion);
+        }
+        return Math.min(clientVersion, VERSION);
+    }
+
+    private static void opcode(int code, String type) {
+        TYPE_BY_OPCODE[code] = type;
+        OPCODE_BY_TYPE.put(type, code);
+    }
+
+    private static void field(int code, String key) {
+        field(code, key, 1);
+    }
+
+    private static void field(int code, String key, int sinceVersion) {
+        KEY_BY_FIELD[code] = key;
+        FIELD_BY_KEY.put(key, code);
+        FIELD_SINCE[code] = sinceVersion;
+    }
+
+    // кадр HELLO, с которого клиент начинает соединение
+    public static byte[] helloFrame(int version) {
+        byte[] frame = new byte[FrameEncoder.HEADER_SIZE + MAGIC.length + 1];
+        frame[3] = (byte) (MAGIC.length + 1);
+        System.arraycopy(MAGIC, 0, frame, FrameEncoder.HEADER_SIZE, MAGIC.length);
+        frame[frame.length - 1] = (byte) version;
+        return frame;
+    }
+
+    public static boolean isHello(byte[] payload) {
+        return payload.length == MAGIC.length + 1 &&
+                payload[0] == MAGIC[0] && payload[1] == MAGIC[1] && payload[2] == MAGIC[2];
+    }
+
+    @Override
+    public byte[] encode(GameMessage message) throws IOException {
+        if (HELLO.equals(message.getType())) {
+            return helloFrame((Integer) message.getData("version"));
+        }
+
+        Integer opcode = OPCODE_BY_TYPE.get(message.getType());
+        if (opcode == null) {
+            throw new IOException("Нет кода для типа сообщения: " + message.getType());
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(0); // место под длину кадра
+        out.writeByte(opcode);
+        if (version >= REQUEST_ID_VERSION) {
+            out.writeInt(message.getRequestId());
+        }
+
+        // поля новее согласованной версии необязательны и не отправляются:
+        // собеседник их не знает
+        Map<String, Object> data = message.getAllData();
+        int fieldCount = 0;
+        for (String key : data.keySet()) {
+            Integer fieldCode = FIELD_BY_KEY.get(key);
+            if (fieldCode == null) {
+                throw new IOException("Нет кода для поля: " + key);
+            }
+            if (FIELD_SINCE[fieldCode] <= version) {
+                fieldCount++;
+            }
+        }
+        out.writeByte(fieldCount);
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            int fieldCode = FIELD_BY_KEY.get(entry.getKey());
+            if (FIELD_SINCE[fieldCode] > version) {
+                continue;
+            }
+            out.writeByte(fieldCode);
+            writeValue(out, entry.getValue(), version);
+        }
+        out.flush();
+
+        byte[] frame = buffer.toByteArray();
+        int length = frame.length - FrameEncoder.HEADER_SIZE;
+        if (length > FrameEncoder.MAX_FRAME_SIZE) {
+            throw new IOException("Слишком большое сообщение: " + length + " байт");
+        }
+        frame[0] = (byte) (length >>> 24);
+        frame[1] = (byte) (length >>> 16);
+        frame[2] = (byte) (length >>> 8);
+        frame[3] = (byte) length;
+        return frame;
+    }
+
+    @Override
+    public GameMessage decode(byte[] payload) throws IOException {
+        if (isHello(payload)) {
+            GameMessage hello = new GameMessage(HELLO);
+            hello.addData("version", payload[MAGIC.length] & 0xFF);
+            return hello;
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        String type = TYPE_BY_OPCODE[in.readUnsignedByte()];
+        if (type == null) {
+            throw new StreamCorruptedException("Неизвестный код сообщения: " + (payload[0] & 0xFF));
+        }
+
+        GameMessage message = new GameMessage(type);
+        if (version >= REQUEST_ID_VERSION) {
+            message.setRequestId(in.readInt());
+        }
+        int fieldCount = in.readUnsignedByte();
+        for (int i = 0; i < fieldCount; i++) {
+            int fieldCode = in.readUnsignedByte();
+            String key = KEY_BY_FIELD[fieldCode];
+            if (key == null) {
+                throw new StreamCorruptedException("Неизвестный код поля: " + fieldCode);
+            }
+            message.addData(key, readValue(in, version));
+        }
+        if (in.available() > 0) {
+            throw new StreamCorruptedException("Лишние байты в кадре: " + in.available());
+        }
+        return message;
+    }
+
+    private static void writeValue(DataOutputStream out, Object value, int version) throws IOException {
+        if (value == null) {
+            out.writeByte(T_NULL);
+        } else if (value instanceof Boolean) {
+            out.writeByte(T_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(T_INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Character) {
+            out.writeByte(T_CHAR);
+            out.writeChar((Character) value);
+        } else if (value instanceof String) {
+            out.writeByte(T_STRING);
+            out.writeUTF((String) value);
+        } else if (value instanceof Move) {
+            Move move = (Move) value;
+            out.writeByte(T_MOVE);
+            out.writeByte(move.getRow());
+            out.writeByte(move.getCol());
+        } else if (value instanceof GameState) {
+            out.writeByte(T_GAME_STATE);
+            writeGameState(out, (GameState) value, version);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.writeByte(T_STRING_LIST);
+            out.writeShort(list.size());
+            for (Object item : list) {
+                out.writeUTF(item == null ? "" : item.toString());
+            }
+        } else {
+            throw new IOException("Тип не поддерживается бинарным протоколом: " + value.getClass());
+        }
+    }
+
+    private static Object readValue(DataInputStream in, int version) throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case T_NULL:
+                return null;
+            case T_BOOLEAN:
+                return in.readBoolean();
+            case T_INT:
+                return in.readInt();
+            case T_CHAR:
+                return in.readChar();
+            case T_STRING:
+                return in.readUTF();
+            case T_MOVE:
+                return new Move(in.readUnsignedByte(), in.readUnsignedByte());
+            case T_GAME_STATE:
+                return readGameState(in, version);
+            case T_STRING_LIST:
+                int size = in.readUnsignedShort();
+                List<String> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(in.readUTF());
+                }
+                return list;
+            default:
+                throw new StreamCorruptedException("Неизвестный тег значения: " + tag);
+        }
+    }
+
+    // Состояние игры отдельно от сообщения: байт версии и состояние в формате
+    // этой версии. Используется там, где состояние хранится вне соединения.
+    public static byte[] encodeGameState(GameState state) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(VERSION);
+        writeGameState(out, state, VERSION);
+        return bytes.toByteArray();
+    }
+
+    public static GameState decodeGameState(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int version = in.readUnsignedByte();
+        if (version < 1 || version > VERSION) {
+            throw new StreamCorruptedException("Неизвестная версия состояния: " + version);
+        }
+        return readGameState(in, version);
+    }
+
+    // Раскладка GameState: строки (1 байт), столбцы (1 байт), длина линии
+    // (1 байт, с версии 5), клетки по 2 бита (0 - пусто, 1 - X, 2 - O),
+    // текущий игрок (1 байт), флаги (бит 0 - игра окончена, бит 1 - есть
+    // победитель, бит 2 - есть выигрышная линия, бит 3 - ультимейт, с версии 6),
+    // победитель, линия: в версиях 3-4 маска поля 3x3 (2 байта), с версии 5 -
+    // число клеток (1 байт) и номера клеток (по 2 байта); для ультимейта
+    // в конце клетка последнего хода + 1 (1 байт, 0 - ходов не было).
+    // Старые клиенты видят ультимейт как поле 9x9, ходы проверяет сервер.
+    private static void writeGameState(DataOutputStream out, GameState state, int version) throws IOException {
+        int rows = state.getRows();
+        int cols = state.getCols();
+        out.writeByte(rows);
+        out.writeByte(cols);
+        if (version >= BOARD_SIZE_VERSION) {
+            out.writeByte(state.getWinLength());
+        }
+
+        byte[] cells = new byte[(rows * cols + 3) / 4];
+        for (int i = 0; i < rows * cols; i++) {
+            String cell = state.getCell(i / cols, i % cols);
+            int code = "X".equals(cell) ? 1 : "O".equals(cell) ? 2 : 0;
+            cells[i / 4] |= (byte) (code << ((i % 4) * 2));
+        }
+        out.write(cells);
+
+        out.writeByte(state.getCurrentPlayer());
+        String winner = state.getWinner();
+        int[] winCells = state.getWinCells();
+        boolean hasWinLine = version >= BOARD_SIZE_VERSION ? winCells != null :
+                version >= WIN_LINE_VERSION && state.getWinLine() != 0;
+        boolean ultimate = version >= ULTIMATE_VERSION && state.isUltimate();
+        out.writeByte((state.isGameOver() ? 1 : 0) | (winner != null ? 2 : 0) | (hasWinLine ? 4 : 0) |
+                (ultimate ? 8 : 0));
+        if (winner != null) {
+            out.writeUTF(winner);
+        }
+        if (hasWinLine) {
+            if (version >= BOARD_SIZE_VERSION) {
+                out.writeByte(winCells.length);
+                for (int cell : winCells) {
+                    out.writeShort(cell);
+                }
+            } else {
+                out.writeShort(state.getWinLine());
+            }
+        }
+        if (ultimate) {
+            out.writeByte(state.getLastCell() + 1);
+        }
+    }
+
+    private static GameState readGameState(DataInputStream in, int version) throws IOException {
+        int rows = in.readUnsignedByte();
+        int cols = in.readUnsignedByte();
+        // до версии 5 все поля были 3x3, три в ряд
+        int winLength = version >= BOARD_SIZE_VERSION ? in.readUnsignedByte() : GameState.SIZE;
+        if (!GameState.isValidSize(rows, cols, winLength)) {
+            throw new StreamCorruptedException("Недопустимый размер поля: " + rows + "x" + cols + ", " + winLength);
+        }
+
+        byte[] cells = new byte[(rows * cols + 3) / 4];
+        in.readFully(cells);
+
+        GameState state = new GameState(rows, cols, winLength);
+        for (int i = 0; i < rows * cols; i++) {
+            int code = (cells[i / 4] >> ((i % 4) * 2)) & 3;
+            if (code == 1 || code == 2) {
+                state.makeMove(i / cols, i % cols, code == 1 ? "X" : "O");
+            }
+        }
+
+        state.setCurrentPlayer((char) in.readUnsignedByte());
+        int flags = in.readUnsignedByte();
+        state.setGameOver((flags & 1) != 0);
+        if ((flags & 2) != 0) {
+            state.setWinner(in.readUTF());
+        }
+        if ((flags & 4) != 0) {
+            if (version >= BOARD_SIZE_VERSION) {
+                int[] winCells = new int[in.readUnsignedByte()];
+                for (int i = 0; i < winCells.length; i++) {
+                    winCells[i] = in.readUnsignedShort();
+                    if (winCells[i] >= rows * cols) {
+                        throw new StreamCorruptedException("Клетка линии вне поля: " + winCells[i]);
+                    }
+                }
+                state.setWinCells(winCells);
+            } else if (version >= WIN_LINE_VERSION) {
+                state.setWinLine(in.readUnsignedShort());
+            }
+        }
+        if ((flags & 8) != 0) {
+            if (rows != UltimateBoard.SIZE || cols != UltimateBoard.SIZE) {
+                throw new StreamCorruptedException("Ультимейт на поле " + rows + "x" + cols);
+            }
+            int lastCell = in.readUnsignedByte() - 1;
+            if (lastCell >= rows * cols) {
+                throw new StreamCorruptedException("Последний ход вне поля: " + lastCell);
+            }
+            state.setUltimate(true);
+            state.setLastCell(lastCell);
+        }
+        return state;
+    }
+}
@@ -0,0 +1,112 @@
+//Декодирование кадров в сообщения
+
+
+package shared;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamConstants;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+
+// Пара к FrameEncoder: получает содержимое кадра целиком (без заголовка длины)
+// и читает из него ровно один GameMessage. Кадр всегда полный, поэтому
+// readObject никогда не блокируется и его можно вызывать из событийного цикла.
+public class FrameDecoder {
+    private final FrameInputStream frameStream = new FrameInputStream();
+    private ObjectInputStream objectStream;
+
+    public GameMessage decode(byte[] payload) throws IOException, ClassNotFoundException {
+        frameStream.setFrame(payload);
+
+        // заголовок потока приходит в первом кадре
+        if (objectStream == null) {
+            objectStream = new ObjectInputStream(frameStream);
+        }
+
+        Object obj = objectStream.readObject();
+        if (frameStream.available() > 0) {
+            throw new StreamCorruptedException("Лишние байты в кадре: " + frameStream.available());
+        }
+        if (!(obj instanceof GameMessage)) {
+            throw new StreamCorruptedException("Получен неизвестный объект: " + obj.getClass());
+        }
+        return (GameMessage) obj;
+    }
+
+    // чтение одного кадра из блокирующего потока
+    public static byte[] readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        checkLength(length);
+
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return payload;
+    }
+
+    // Клиенты до перехода на кадры пишут сериализацию Java прямо в сокет:
+    // поток начинается с STREAM_MAGIC (0xACED). Длина кадра с такими первыми
+    // байтами отрицательна, поэтому спутать их с кадром нельзя.
+    public static boolean isObjectStream(int first, int second) {
+        return (short) ((first << 8) | second) == ObjectStreamConstants.STREAM_MAGIC;
+    }
+
+    // проверка начала потока без чтения; поток должен поддерживать mark
+    public static boolean isObjectStream(InputStream in) throws IOException {
+        in.mark(2);
+        int first = in.read();
+        int second = in.read();
+        in.reset();
+        return second >= 0 && isObjectStream(first, second);
+    }
+
+    // то же для буфера, начиная с его позиции; нужно хотя бы два байта
+    public static boolean isObjectStream(ByteBuffer buffer) {
+        int position = buffer.position();
+        return isObjectStream(buffer.get(position) & 0xFF, buffer.get(position + 1) & 0xFF);
+    }
+
+    public static void checkLength(int length) throws IOException {
+        if (length <= 0 || length > FrameEncoder.MAX_FRAME_SIZE) {
+            throw new StreamCorruptedException("Недопустимая длина кадра: " + length);
+        }
+    }
+
+    // поток, который отдает байты текущего кадра
+    private static class FrameInputStream extends InputStream {
+        private byte[] frame = new byte[0];
+        private int position;
+
+        void setFrame(byte[] frame) {
+            this.frame = frame;
+            this.position = 0;
+        }
+
+        @Override
+        public int read() {
+            return position < frame.length ? (frame[position++] & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            int remaining = frame.length - position;
+            if (remaining <= 0) {
+                return -1;
+            }
+            int count = Math.min(len, remaining);
+            System.arraycopy(frame, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return frame.length - position;
+        }
+    }
+}
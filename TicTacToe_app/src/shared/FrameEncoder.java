@@ -0,0 +1,89 @@
+//Кодирование сообщений в кадры
+
+
+package shared;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+// Кадр = 4 байта длины (big-endian) + сериализованный GameMessage.
+// ObjectOutputStream один на все соединение, поэтому заголовок потока
+// и описания классов уходят только в первом кадре.
+//
+// Таблица ссылок ObjectOutputStream держит каждый записанный объект,
+// поэтому поток сбрасывается (reset) после заданного числа сообщений или байт.
+// TC_RESET пишется перед следующим объектом в том же кадре, и получатель
+// очищает свою таблицу в той же точке потока.
+public class FrameEncoder {
+    public static final int HEADER_SIZE = 4;
+    public static final int MAX_FRAME_SIZE = 1024 * 1024;
+
+    public static final int DEFAULT_RESET_MESSAGES = 64;
+    public static final int DEFAULT_RESET_BYTES = 64 * 1024;
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+    private final int resetMessages;
+    private final int resetBytes;
+    private ObjectOutputStream objectStream;
+
+    // записано с последнего сброса
+    private int messagesSinceReset;
+    private long bytesSinceReset;
+
+    public FrameEncoder() {
+        this(DEFAULT_RESET_MESSAGES, DEFAULT_RESET_BYTES);
+    }
+
+    public FrameEncoder(int resetMessages, int resetBytes) {
+        if (resetMessages <= 0 || resetBytes <= 0) {
+            throw new IllegalArgumentException("Порог сброса должен быть положительным");
+        }
+        this.resetMessages = resetMessages;
+        this.resetBytes = resetBytes;
+    }
+
+    // возвращает готовый кадр вместе с заголовком длины
+    public synchronized byte[] encode(GameMessage message) throws IOException {
+        // первый кадр несет заголовок потока
+        boolean first = objectStream == null;
+        if (first) {
+            objectStream = new ObjectOutputStream(buffer);
+        } else if (messagesSinceReset >= resetMessages || bytesSinceReset >= resetBytes) {
+            objectStream.reset();
+            messagesSinceReset = 0;
+            bytesSinceReset = 0;
+        }
+
+        objectStream.writeObject(message);
+        objectStream.flush();
+
+        int length = buffer.size();
+        if (length > MAX_FRAME_SIZE) {
+            // объект уже попал в таблицу ссылок, а получатель его не увидит
+            buffer.reset();
+            if (first) {
+                // вместе с кадром пропал заголовок потока: поток создается заново,
+                // и следующий кадр снова начнется с заголовка
+                objectStream = null;
+            } else {
+                // следующий кадр начнется со сброса, чтобы таблицы снова совпали
+                messagesSinceReset = resetMessages;
+            }
+            throw new IOException("Слишком большое сообщение: " + length + " байт");
+        }
+        messagesSinceReset++;
+        bytesSinceReset += length;
+
+        byte[] payload = buffer.toByteArray();
+        buffer.reset();
+
+        byte[] frame = new byte[HEADER_SIZE + length];
+        frame[0] = (byte) (length >>> 24);
+        frame[1] = (byte) (length >>> 16);
+        frame[2] = (byte) (length >>> 8);
+        frame[3] = (byte) length;
+        System.arraycopy(payload, 0, frame, HEADER_SIZE, length);
+        return frame;
+    }
+}
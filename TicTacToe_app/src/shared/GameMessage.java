@@ -4,12 +4,21 @@
 package shared;
 
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
 
 public class GameMessage implements Serializable {
+    // значение зафиксировано по старой версии класса, чтобы старые клиенты
+    // с сериализацией продолжали работать
+    private static final long serialVersionUID = -4640193631375427991L;
+
     private String type;
     private HashMap<String, Object> data;
 
+    // номер запроса: сервер копирует его в ответ, 0 - событие без запроса
+    private int requestId;
+
     public GameMessage(String type) {
         this.type = type;
         this.data = new HashMap<>();
@@ -17,6 +26,9 @@ public class GameMessage implements Serializable {
 
     public String getType() { return type; }
 
+    public int getRequestId() { return requestId; }
+    public void setRequestId(int requestId) { this.requestId = requestId; }
+
     public void addData(String key, Object value) {
         data.put(key, value);
     }
@@ -28,4 +40,9 @@ public class GameMessage implements Serializable {
     public boolean hasData(String key) {
         return data.containsKey(key);
     }
+
+    // все данные сообщения (нужно бинарному кодеку)
+    public Map<String, Object> getAllData() {
+        return Collections.unmodifiableMap(data);
+    }
 }
\ No newline at end of file
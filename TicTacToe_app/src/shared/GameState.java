@@ -1,37 +1,196 @@
 package shared;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.Arrays;
 
+// Состояние игры на поле rows x cols, победа - winLength знаков подряд
+// (m,n,k-игра). По умолчанию классическое поле 3x3, три в ряд.
+// Ультимейт - поле 9x9 из девяти полей 3x3 со своими правилами (UltimateBoard):
+// для него запоминается последний ход, он определяет поле следующего хода.
 public class GameState implements Serializable {
-    private String[][] board;
+    // зафиксирован, чтобы сохраненные игры читались после изменений класса
+    private static final long serialVersionUID = 346021823782257719L;
+
+    // классическое поле 3x3: для него есть маски int и готовые таблицы ИИ
+    public static final int SIZE = 3;
+    public static final int CELLS = SIZE * SIZE;
+    public static final int FULL_MASK = (1 << CELLS) - 1;
+
+    // ограничение размеров поля для любых вариантов игры
+    public static final int MAX_SIZE = 19;
+
+    // все выигрышные линии: 3 строки, 3 столбца, 2 диагонали
+    private static final int[] WIN_LINES = {
+            0b000_000_111, 0b000_111_000, 0b111_000_000,
+            0b001_001_001, 0b010_010_010, 0b100_100_100,
+            0b100_010_001, 0b001_010_100
+    };
+
+    // направления проверки линии: по строке, по столбцу, две диагонали
+    private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+
+    // В потоке сериализации состояние хранится в прежнем виде (доска String[][]),
+    // чтобы читались старые сохранения и работали старые клиенты.
+    // Размеры поля берутся из размеров доски.
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("board", String[][].class),
+            new ObjectStreamField("currentPlayer", char.class),
+            new ObjectStreamField("gameOver", boolean.class),
+            new ObjectStreamField("winner", String.class),
+            new ObjectStreamField("winLine", int.class),
+            new ObjectStreamField("winLength", int.class),
+            new ObjectStreamField("winCells", int[].class),
+            new ObjectStreamField("ultimate", boolean.class),
+            new ObjectStreamField("lastCell", int.class)
+    };
+
+    private int rows;
+    private int cols;
+    private int winLength;
+
+    // Доска - две битовые маски, клетка (row, col) - бит row * cols + col
+    private long[] xBits;
+    private long[] oBits;
+    private int stones;
+    // правила ультимейта и клетка последнего хода (-1 - ходов не было)
+    private boolean ultimate;
+    private int lastCell = -1;
+
     private char currentPlayer;
     private boolean gameOver;
     private String winner;
+    // клетки выигрышной линии (номера row * cols + col), null - победы нет
+    private int[] winCells;
 
     public GameState() {
-        this.board = new String[3][3];
-        for (int i = 0; i < 3; i++) {
-            for (int j = 0; j < 3; j++) {
-                board[i][j] = "";  // Пустая строка вместо пробела
-            }
+        this(SIZE, SIZE, SIZE);
+    }
+
+    public GameState(int rows, int cols, int winLength) {
+        if (!isValidSize(rows, cols, winLength)) {
+            throw new IllegalArgumentException("Invalid board size: " + rows + "x" + cols + ", k=" + winLength);
         }
+        this.rows = rows;
+        this.cols = cols;
+        this.winLength = winLength;
+        this.xBits = new long[(rows * cols + 63) / 64];
+        this.oBits = new long[xBits.length];
         this.currentPlayer = 'X';
         this.gameOver = false;
         this.winner = null;
     }
 
+    // пустое поле ультимейта
+    public static GameState ultimate() {
+        GameState state = new GameState(UltimateBoard.SIZE, UltimateBoard.SIZE, SIZE);
+        state.ultimate = true;
+        return state;
+    }
+
+    public static boolean isValidSize(int rows, int cols, int winLength) {
+        return rows >= 1 && rows <= MAX_SIZE && cols >= 1 && cols <= MAX_SIZE &&
+                winLength >= 2 && winLength <= Math.max(rows, cols);
+    }
+
+    // бит клетки классического поля 3x3
+    public static int bit(int row, int col) {
+        return 1 << (row * SIZE + col);
+    }
+
     // Геттеры и сеттеры
+
+    public int getRows() { return rows; }
+    public int getCols() { return cols; }
+    public int getWinLength() { return winLength; }
+
+    // классическое поле 3x3, три в ряд
+    public boolean isClassic() {
+        return rows == SIZE && cols == SIZE && winLength == SIZE;
+    }
+
+    public boolean isUltimate() { return ultimate; }
+    // для чтения состояния из протокола; поле должно быть 9x9
+    void setUltimate(boolean ultimate) { this.ultimate = ultimate; }
+
+    public int getLastCell() { return lastCell; }
+    public void setLastCell(int lastCell) { this.lastCell = lastCell; }
+
+    // Доска в виде строк ("X", "O" или ""); каждый вызов создает новый массив,
+    // изменения в нем на состояние не влияют
     public String[][] getBoard() {
+        String[][] board = new String[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                board[i][j] = getCell(i, j);
+            }
+        }
         return board;
     }
 
     public void setBoard(String[][] board) {
-        if (board == null || board.length != 3) {
+        if (board == null || board.length != rows) {
             throw new IllegalArgumentException("Invalid board");
         }
-        this.board = board;
+        for (int i = 0; i < rows; i++) {
+            if (board[i] == null || board[i].length != cols) {
+                throw new IllegalArgumentException("Invalid board");
+            }
+        }
+        clearBoard();
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                if ("X".equals(board[i][j]) || "O".equals(board[i][j])) {
+                    makeMove(i, j, board[i][j]);
+                }
+            }
+        }
+    }
+
+    public String getCell(int row, int col) {
+        int cell = row * cols + col;
+        if (has(xBits, cell)) {
+            return "X";
+        }
+        if (has(oBits, cell)) {
+            return "O";
+        }
+        return "";
+    }
+
+    // Маски классического поля 3x3 (для таблиц и перебора ИИ)
+    public int getXMask() { return (int) xBits[0] & FULL_MASK; }
+    public int getOMask() { return (int) oBits[0] & FULL_MASK; }
+
+    // маска клеток указанного символа (поле 3x3)
+    public int getMask(String symbol) {
+        return "X".equals(symbol) ? getXMask() : getOMask();
     }
 
+    // маска свободных клеток (поле 3x3)
+    public int getEmptyMask() {
+        return ~(getXMask() | getOMask()) & FULL_MASK;
+    }
+
+    // Маски полей до 64 клеток: бит row * cols + col
+    public long getXBits() { return xBits[0]; }
+    public long getOBits() { return oBits[0]; }
+
+    public boolean isEmpty(int row, int col) {
+        int cell = row * cols + col;
+        return !has(xBits, cell) && !has(oBits, cell);
+    }
+
+    public boolean isFull() {
+        return stones == rows * cols;
+    }
+
+    public int getStoneCount() { return stones; }
+
     public char getCurrentPlayer() { return currentPlayer; }
     public void setCurrentPlayer(char currentPlayer) { this.currentPlayer = currentPlayer; }
 
@@ -41,12 +200,205 @@ public class GameState implements Serializable {
     public String getWinner() { return winner; }
     public void setWinner(String winner) { this.winner = winner; }
 
+    public int[] getWinCells() {
+        return winCells == null ? null : winCells.clone();
+    }
+
+    public void setWinCells(int[] winCells) {
+        this.winCells = winCells == null || winCells.length == 0 ? null : winCells.clone();
+    }
+
+    // выигрышная линия поля 3x3 в виде маски, 0 - победы нет
+    public int getWinLine() {
+        if (winCells == null || !isClassic()) {
+            return 0;
+        }
+        int mask = 0;
+        for (int cell : winCells) {
+            mask |= 1 << cell;
+        }
+        return mask;
+    }
+
+    public void setWinLine(int winLine) {
+        winLine &= FULL_MASK;
+        int[] cells = new int[Integer.bitCount(winLine)];
+        int index = 0;
+        for (int line = winLine; line != 0; line &= line - 1) {
+            cells[index++] = Integer.numberOfTrailingZeros(line);
+        }
+        setWinCells(cells);
+    }
+
+    // выигрышная линия в виде координат {row, col} для подсветки, null - победы нет
+    public int[][] getWinLineCells() {
+        if (winCells == null) {
+            return null;
+        }
+        int[][] cells = new int[winCells.length][];
+        for (int i = 0; i < winCells.length; i++) {
+            cells[i] = new int[] {winCells[i] / cols, winCells[i] % cols};
+        }
+        return cells;
+    }
+
+    // первая выигрышная линия поля 3x3, целиком занятая маской, или 0
+    public static int findWinLine(int mask) {
+        for (int line : WIN_LINES) {
+            if ((mask & line) == line) {
+                return line;
+            }
+        }
+        return 0;
+    }
+
+    // Проверка победы только по линиям через клетку (row, col) - обычно
+    // через последний ход. Возвращает клетки линии из winLength и более
+    // знаков подряд или null.
+    public int[] findWinAt(int row, int col) {
+        int cell = row * cols + col;
+        long[] bits = has(xBits, cell) ? xBits : has(oBits, cell) ? oBits : null;
+        if (bits == null) {
+            return null;
+        }
+
+        for (int[] direction : DIRECTIONS) {
+            int dr = direction[0];
+            int dc = direction[1];
+
+            // от клетки назад до начала непрерывного отрезка
+            int startRow = row;
+            int startCol = col;
+            while (inside(startRow - dr, startCol - dc) && has(bits, (startRow - dr) * cols + startCol - dc)) {
+                startRow -= dr;
+                startCol -= dc;
+            }
+
+            int length = 0;
+            int r = startRow;
+            int c = startCol;
+            while (inside(r, c) && has(bits, r * cols + c)) {
+                length++;
+                r += dr;
+                c += dc;
+            }
+
+            if (length >= winLength) {
+                int[] line = new int[length];
+                for (int i = 0; i < length; i++) {
+                    line[i] = (startRow + i * dr) * cols + startCol + i * dc;
+                }
+                return line;
+            }
+        }
+        return null;
+    }
+
+    // очистка доски
+    public void clearBoard() {
+        Arrays.fill(xBits, 0L);
+        Arrays.fill(oBits, 0L);
+        stones = 0;
+        lastCell = -1;
+        winCells = null;
+    }
+
+    // Снимок состояния для отправки клиенту. Поток сериализации запоминает
+    // отправленные объекты и повторно шлет только ссылку на них, поэтому
+    // изменяемое состояние игры нельзя класть в сообщение напрямую.
+    public GameState copy() {
+        GameState copy = new GameState(rows, cols, winLength);
+        System.arraycopy(xBits, 0, copy.xBits, 0, xBits.length);
+        System.arraycopy(oBits, 0, copy.oBits, 0, oBits.length);
+        copy.stones = stones;
+        copy.ultimate = ultimate;
+        copy.lastCell = lastCell;
+        copy.currentPlayer = currentPlayer;
+        copy.gameOver = gameOver;
+        copy.winner = winner;
+        copy.winCells = winCells;
+        return copy;
+    }
+
     // Метод для выполнения хода
     public void makeMove(int row, int col, String symbol) {
-        if (row < 0 || row >= 3 || col < 0 || col >= 3) {
+        if (!inside(row, col)) {
             throw new IllegalArgumentException("Invalid coordinates");
         }
-        board[row][col] = symbol;
+        int cell = row * cols + col;
+        // как и раньше, символ в клетке перезаписывается
+        if (has(xBits, cell) || has(oBits, cell)) {
+            stones--;
+        }
+        clear(xBits, cell);
+        clear(oBits, cell);
+        if ("X".equals(symbol)) {
+            set(xBits, cell);
+            stones++;
+            lastCell = cell;
+        } else if ("O".equals(symbol)) {
+            set(oBits, cell);
+            stones++;
+            lastCell = cell;
+        }
     }
 
-}
\ No newline at end of file
+    private boolean inside(int row, int col) {
+        return row >= 0 && row < rows && col >= 0 && col < cols;
+    }
+
+    private static boolean has(long[] bits, int cell) {
+        return (bits[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    private static void set(long[] bits, int cell) {
+        bits[cell >>> 6] |= 1L << cell;
+    }
+
+    private static void clear(long[] bits, int cell) {
+        bits[cell >>> 6] &= ~(1L << cell);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("board", getBoard());
+        fields.put("currentPlayer", currentPlayer);
+        fields.put("gameOver", gameOver);
+        fields.put("winner", winner);
+        fields.put("winLine", getWinLine());
+        fields.put("winLength", winLength);
+        fields.put("winCells", winCells);
+        fields.put("ultimate", ultimate);
+        fields.put("lastCell", lastCell);
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        String[][] board = (String[][]) fields.get("board", null);
+        rows = board != null ? board.length : SIZE;
+        cols = board != null && board.length > 0 && board[0] != null ? board[0].length : SIZE;
+        // в старых сохранениях длины линии нет - это поле 3x3
+        winLength = fields.get("winLength", SIZE);
+        if (!isValidSize(rows, cols, winLength)) {
+            throw new InvalidObjectException("Invalid board size: " + rows + "x" + cols);
+        }
+        xBits = new long[(rows * cols + 63) / 64];
+        oBits = new long[xBits.length];
+        if (board != null) {
+            setBoard(board);
+        }
+        // в старых сохранениях ультимейта нет, последний ход неизвестен
+        ultimate = fields.get("ultimate", false);
+        lastCell = fields.get("lastCell", -1);
+        currentPlayer = fields.get("currentPlayer", 'X');
+        gameOver = fields.get("gameOver", false);
+        winner = (String) fields.get("winner", null);
+        int[] cells = (int[]) fields.get("winCells", null);
+        if (cells != null) {
+            setWinCells(cells);
+        } else {
+            setWinLine(fields.get("winLine", 0));
+        }
+    }
+}
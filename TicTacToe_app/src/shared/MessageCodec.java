@@ -0,0 +1,16 @@
+//Кодек сообщений
+
+
+package shared;
+
+import java.io.IOException;
+
+// Преобразование GameMessage в кадр и обратно. Кадр всегда начинается
+// с 4 байт длины (см. FrameEncoder), кодек определяет только содержимое.
+public interface MessageCodec {
+    // возвращает готовый кадр вместе с заголовком длины
+    byte[] encode(GameMessage message) throws IOException;
+
+    // принимает содержимое кадра без заголовка длины
+    GameMessage decode(byte[] payload) throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,23 @@
+//Кодек на стандартной сериализации Java
+
+
+package shared;
+
+import java.io.IOException;
+
+// Старый формат: GameMessage целиком через ObjectOutputStream.
+// Остается для клиентов, которые не присылают HELLO бинарного протокола.
+public class SerializedCodec implements MessageCodec {
+    private final FrameEncoder encoder = new FrameEncoder();
+    private final FrameDecoder decoder = new FrameDecoder();
+
+    @Override
+    public byte[] encode(GameMessage message) throws IOException {
+        return encoder.encode(message);
+    }
+
+    @Override
+    public GameMessage decode(byte[] payload) throws IOException, ClassNotFoundException {
+        return decoder.decode(payload);
+    }
+}
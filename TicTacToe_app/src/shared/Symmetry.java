@@ -0,0 +1,99 @@
+//Симметрии доски
+
+
+package shared;
+
+// Повороты и отражения доски. Преобразование t переводит клетку (row, col)
+// доски rows x cols в клетку преобразованной доски. Повороты на 90 и 270
+// градусов и отражения по диагоналям меняют местами строки и столбцы,
+// поэтому у прямоугольной доски только 4 симметрии, у квадратной - 8.
+public final class Symmetry {
+    public static final int IDENTITY = 0;
+    public static final int ROTATE_90 = 1;       // по часовой стрелке
+    public static final int ROTATE_180 = 2;
+    public static final int ROTATE_270 = 3;
+    public static final int MIRROR_COLS = 4;     // слева направо
+    public static final int MIRROR_ROWS = 5;     // сверху вниз
+    public static final int TRANSPOSE = 6;       // по главной диагонали
+    public static final int ANTI_TRANSPOSE = 7;  // по побочной диагонали
+    public static final int COUNT = 8;
+
+    // перестановки клеток и масок классического поля 3x3
+    private static final int[][] CELLS = new int[COUNT][GameState.CELLS];
+    private static final int[][] MASKS = new int[COUNT][1 << GameState.CELLS];
+
+    static {
+        int size = GameState.SIZE;
+        for (int t = 0; t < COUNT; t++) {
+            for (int cell = 0; cell < GameState.CELLS; cell++) {
+                int row = cell / size;
+                int col = cell % size;
+                CELLS[t][cell] = row(t, size, size, row, col) * size + col(t, size, size, row, col);
+            }
+            for (int mask = 0; mask < MASKS[t].length; mask++) {
+                int result = 0;
+                for (int bits = mask; bits != 0; bits &= bits - 1) {
+                    result |= 1 << CELLS[t][Integer.numberOfTrailingZeros(bits)];
+                }
+                MASKS[t][mask] = result;
+            }
+        }
+    }
+
+    private Symmetry() {
+    }
+
+    public static int inverse(int t) {
+        if (t == ROTATE_90) {
+            return ROTATE_270;
+        }
+        if (t == ROTATE_270) {
+            return ROTATE_90;
+        }
+        return t;
+    }
+
+    // строка клетки (row, col) после преобразования t
+    public static int row(int t, int rows, int cols, int row, int col) {
+        switch (t) {
+            case ROTATE_90:
+            case TRANSPOSE:
+                return col;
+            case ROTATE_180:
+            case MIRROR_ROWS:
+                return rows - 1 - row;
+            case ROTATE_270:
+            case ANTI_TRANSPOSE:
+                return cols - 1 - col;
+            default:
+                return row;
+        }
+    }
+
+    // столбец клетки (row, col) после преобразования t
+    public static int col(int t, int rows, int cols, int row, int col) {
+        switch (t) {
+            case ROTATE_90:
+            case ANTI_TRANSPOSE:
+                return rows - 1 - row;
+            case ROTATE_180:
+            case MIRROR_COLS:
+                return cols - 1 - col;
+            case ROTATE_270:
+            case TRANSPOSE:
+                return row;
+            default:
+                return col;
+        }
+    }
+
+    // клетка поля 3x3 (row * 3 + col) после преобразования t
+    public static int cell3x3(int t, int cell) {
+        return CELLS[t][cell];
+    }
+
+    // маска поля 3x3 после преобразования t
+    public static int mask3x3(int t, int mask) {
+        return MASKS[t][mask];
+    }
+}
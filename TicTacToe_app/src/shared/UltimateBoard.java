@@ -0,0 +1,210 @@
+//Упакованная доска ультимейта
+
+
+package shared;
+
+// Ультимейт: поле 3x3 из девяти малых полей 3x3. Ход в клетку c малого поля
+// отправляет соперника в малое поле c; если оно уже выиграно или заполнено,
+// соперник ходит в любое открытое поле. Малое поле выигрывается тремя
+// в ряд, вся игра - тремя выигранными полями в ряд.
+//
+// Каждое малое поле - одно число: биты 0-8 - X, биты 9-17 - O. Большое поле -
+// маска выигранных полей (биты 0-8 - X, 9-17 - O) и маска закрытых полей.
+// Ход - число board * 9 + cell, board и cell нумеруются как клетки поля 3x3.
+// Доска меняется на месте (play/undo) и не создает объектов, поэтому
+// годится для перебора ИИ.
+public class UltimateBoard {
+    public static final int SIZE = 9;
+    public static final int MOVES = SIZE * SIZE;
+    // поле следующего хода не задано - можно в любое открытое
+    public static final int ANY = -1;
+
+    private static final int FULL = GameState.FULL_MASK;
+
+    // есть ли в маске поля 3x3 выигрышная линия
+    private static final boolean[] WIN = new boolean[1 << GameState.CELLS];
+
+    static {
+        for (int mask = 0; mask < WIN.length; mask++) {
+            WIN[mask] = GameState.findWinLine(mask) != 0;
+        }
+    }
+
+    private final int[] boards = new int[GameState.CELLS];
+    private int macro;
+    private int closed;
+    private int forced = ANY;
+    // 0 - ходит X, 1 - ходит O
+    private int side;
+    private int stones;
+
+    // доска ультимейта по состоянию игры
+    public static UltimateBoard from(GameState state) {
+        UltimateBoard board = new UltimateBoard();
+        for (int m = 0; m < MOVES; m++) {
+            String cell = state.getCell(row(m), col(m));
+            if (!cell.isEmpty()) {
+                board.boards[m / GameState.CELLS] |= 1 << (m % GameState.CELLS + ("X".equals(cell) ? 0 : 9));
+                board.stones++;
+            }
+        }
+        for (int b = 0; b < GameState.CELLS; b++) {
+            board.updateMacro(b);
+        }
+        int last = state.getLastCell();
+        board.forced = last < 0 ? ANY : move(last / SIZE, last % SIZE) % GameState.CELLS;
+        board.side = state.getCurrentPlayer() == 'O' ? 1 : 0;
+        return board;
+    }
+
+    // номер хода для клетки (row, col) поля 9x9
+    public static int move(int row, int col) {
+        int board = row / 3 * 3 + col / 3;
+        int cell = row % 3 * 3 + col % 3;
+        return board * GameState.CELLS + cell;
+    }
+
+    public static int row(int move) {
+        int board = move / GameState.CELLS;
+        int cell = move % GameState.CELLS;
+        return board / 3 * 3 + cell / 3;
+    }
+
+    public static int col(int move) {
+        int board = move / GameState.CELLS;
+        int cell = move % GameState.CELLS;
+        return board % 3 * 3 + cell % 3;
+    }
+
+    // 0 - ходит X, 1 - ходит O
+    public int getSide() { return side; }
+    public int getStones() { return stones; }
+    public int getForced() { return forced; }
+
+    public int getBoard(int board) { return boards[board]; }
+    public int getMacro() { return macro; }
+    public int getClosed() { return closed; }
+
+    // маска малых полей, в которые можно ходить
+    public int playableBoards() {
+        if (forced != ANY && (closed & (1 << forced)) == 0) {
+            return 1 << forced;
+        }
+        return ~closed & FULL;
+    }
+
+    // Ходы в массив out (не меньше MOVES элементов); возвращает их число
+    public int legalMoves(int[] out) {
+        int count = 0;
+        for (int playable = playableBoards(); playable != 0; playable &= playable - 1) {
+            int b = Integer.numberOfTrailingZeros(playable);
+            int empty = ~(boards[b] | boards[b] >>> 9) & FULL;
+            for (; empty != 0; empty &= empty - 1) {
+                out[count++] = b * GameState.CELLS + Integer.numberOfTrailingZeros(empty);
+            }
+        }
+        return count;
+    }
+
+    public boolean isLegal(int move) {
+        if (move < 0 || move >= MOVES || winner() != 0) {
+            return false;
+        }
+        int b = move / GameState.CELLS;
+        int bit = 1 << move % GameState.CELLS;
+        return (playableBoards() & (1 << b)) != 0 && ((boards[b] | boards[b] >>> 9) & bit) == 0;
+    }
+
+    // клетки, куда можно ходить, для подсветки на клиенте
+    public boolean[][] legalCells() {
+        boolean[][] cells = new boolean[SIZE][SIZE];
+        int[] moves = new int[MOVES];
+        int count = winner() != 0 ? 0 : legalMoves(moves);
+        for (int i = 0; i < count; i++) {
+            cells[row(moves[i])][col(moves[i])] = true;
+        }
+        return cells;
+    }
+
+    // Ход стороны, чья очередь. Возвращает прежнее поле следующего хода для undo.
+    public int play(int move) {
+        int b = move / GameState.CELLS;
+        int cell = move % GameState.CELLS;
+        int previous = forced;
+        boards[b] |= 1 << (cell + 9 * side);
+        updateMacro(b);
+        forced = cell;
+        side ^= 1;
+        stones++;
+        return previous;
+    }
+
+    // отмена хода play(move), previous - результат play
+    public void undo(int move, int previous) {
+        int b = move / GameState.CELLS;
+        side ^= 1;
+        stones--;
+        boards[b] &= ~(1 << (move % GameState.CELLS + 9 * side));
+        // до хода поле было открыто - иначе в него нельзя было ходить
+        macro &= ~(1 << b | 1 << (b + 9));
+        closed &= ~(1 << b);
+        forced = previous;
+    }
+
+    private void updateMacro(int b) {
+        int x = boards[b] & FULL;
+        int o = boards[b] >>> 9;
+        if (WIN[x]) {
+            macro |= 1 << b;
+            closed |= 1 << b;
+        } else if (WIN[o]) {
+            macro |= 1 << (b + 9);
+            closed |= 1 << b;
+        } else if ((x | o) == FULL) {
+            closed |= 1 << b;
+        }
+    }
+
+    // 1 - победил X, 2 - победил O, 0 - победителя нет
+    public int winner() {
+        if (WIN[macro & FULL]) {
+            return 1;
+        }
+        if (WIN[macro >>> 9]) {
+            return 2;
+        }
+        return 0;
+    }
+
+    // партия окончена: есть победитель или все поля закрыты
+    public boolean isFinished() {
+        return winner() != 0 || closed == FULL;
+    }
+
+    // есть ли в маске поля 3x3 выигрышная линия
+    public static boolean isWin(int mask) {
+        return WIN[mask];
+    }
+
+    // Клетки поля 9x9 (row * 9 + col) для подсветки победы: выигрышные
+    // линии малых полей, составивших линию большого поля.
+    public int[] winCells() {
+        int winner = winner();
+        if (winner == 0) {
+            return null;
+        }
+        int shift = winner == 1 ? 0 : 9;
+        int line = GameState.findWinLine(macro >>> shift & FULL);
+        int[] cells = new int[3 * 3];
+        int index = 0;
+        for (int rest = line; rest != 0; rest &= rest - 1) {
+            int b = Integer.numberOfTrailingZeros(rest);
+            int small = GameState.findWinLine(boards[b] >>> shift & FULL);
+            for (; small != 0; small &= small - 1) {
+                int move = b * GameState.CELLS + Integer.numberOfTrailingZeros(small);
+                cells[index++] = row(move) * SIZE + col(move);
+            }
+        }
+        return cells;
+    }
+}